@@ -0,0 +1,579 @@
+package cn.socialclock.db;
+
+import android.content.Context;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.model.AlarmEventPage;
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ * Cold tier of finished alarm events older than a horizon.
+ * An immutable file of fixed width records sorted by (start_at, event_id) and a string table,
+ * read through a MappedByteBuffer, so reads cost no SQLite query and no heap for unread rows.
+ * Archiving streams the current file and the new rows into a new file and renames it over the old one.
+ *
+ * layout, big endian:
+ *   header   int magic, int version, long horizon, int record count, int string count
+ *   records  long start_at, long end_at, long sync_at, int snooze_times,
+ *            int event_id ref, int user_id ref, int user_name ref
+ *   strings  int offset of each string, then each string as unsigned short length and UTF-8 bytes
+ */
+public class AlarmEventArchive {
+
+    private static final String FILE_NAME = "alarm_event.archive";
+
+    private static final int MAGIC = 0x53434131; // "SCA1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 40;
+
+    private static final long NULL_TIME = Long.MIN_VALUE;
+    private static final int NULL_REF = -1;
+
+    // charset name, the Charset overloads need API 9
+    private static final String UTF_8 = "UTF-8";
+
+    // rounds of archiving rows again which changed between read and delete
+    private static final int MAX_ARCHIVE_ROUNDS = 3;
+
+    // (start_at, event_id) ascending, the file order
+    private static final Comparator<AlarmEvent> KEY_ORDER = new Comparator<AlarmEvent>() {
+        @Override
+        public int compare(AlarmEvent a, AlarmEvent b) {
+            return compareKey(a.getStartAtMillis(), a.getEventId(),
+                    b.getStartAtMillis(), b.getEventId());
+        }
+    };
+
+    private static AlarmEventArchive instance;
+
+    private final File file;
+
+    // current file, replaced as a whole after compaction
+    private volatile Records records;
+
+    /**
+     * Get the archive of this process
+     * @param context Context
+     * @return AlarmEventArchive
+     */
+    public static synchronized AlarmEventArchive getInstance(Context context) {
+        if (instance == null) {
+            instance = new AlarmEventArchive(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    private AlarmEventArchive(File file) {
+        this.file = file;
+        this.records = load(file);
+    }
+
+    /**
+     * events started before the horizon are archived
+     * @return long epoch millis, 0 if nothing is archived
+     */
+    public long getHorizon() {
+        return records.horizon;
+    }
+
+    public int size() {
+        return records.count;
+    }
+
+    /**
+     * iterate archived events oldest first, over the file mapped when called
+     * @return Iterator of AlarmEvent, read one by one
+     */
+    Iterator<AlarmEvent> iterateAll() {
+        final Records current = records;
+        return new Iterator<AlarmEvent>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < current.count;
+            }
+
+            @Override
+            public AlarmEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.read(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    /**
+     * one page of archived events, newest first, same token as AlarmEventDbAdapter.findFinishedPage
+     * @param pageToken String or null for the first page
+     * @param pageSize int max events in the page, at least 1
+     * @return AlarmEventPage
+     * @throws IllegalArgumentException if pageSize is not positive
+     */
+    public AlarmEventPage findFinishedPage(String pageToken, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        Records current = records;
+        int index = current.count - 1;
+        if (pageToken != null) {
+            index = current.lastBefore(AlarmEventPage.getTokenStartAt(pageToken),
+                    AlarmEventPage.getTokenEventId(pageToken));
+        }
+        List<AlarmEvent> alarmEvents = new ArrayList<>();
+        while (index >= 0 && alarmEvents.size() < pageSize) {
+            alarmEvents.add(current.read(index--));
+        }
+        String nextPageToken = null;
+        if (index >= 0 && !alarmEvents.isEmpty()) {
+            nextPageToken = AlarmEventPage.createPageToken(alarmEvents.get(alarmEvents.size() - 1));
+        }
+        return new AlarmEventPage(alarmEvents, nextPageToken);
+    }
+
+    /**
+     * whether an event is archived, found by its key without a scan
+     * @param startAt long start time in epoch millis
+     * @param eventId String
+     * @return boolean
+     */
+    public boolean contains(long startAt, String eventId) {
+        Records current = records;
+        for (int index = current.lowerBound(startAt);
+             index < current.count && current.getStartAt(index) == startAt; index++) {
+            if (current.getEventId(index).equals(eventId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get one by event id, scans the file, ids are not indexed
+     * @param eventId String
+     * @return AlarmEvent or null
+     */
+    public AlarmEvent getByEventId(String eventId) {
+        Records current = records;
+        for (int i = current.count - 1; i >= 0; i--) {
+            if (eventId.equals(current.getEventId(i))) {
+                return current.read(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * add start_at, end_at and snooze times of every archived event to a visitor, ex. to rebuild stats
+     * @param visitor FinishedEventVisitor
+     */
+    void visitFinished(FinishedEventVisitor visitor) {
+        Records current = records;
+        for (int i = 0; i < current.count; i++) {
+            visitor.visit(current.getStartAt(i), current.getEndAt(i), current.getSnoozeTimes(i));
+        }
+    }
+
+    /**
+     * Visitor of archived events without building AlarmEvent objects
+     */
+    interface FinishedEventVisitor {
+        void visit(long startAt, long endAt, int snoozeTimes);
+    }
+
+    /**
+     * move finished, not deleted events started before horizon from alarm_event into the archive
+     * the archive is written and renamed first, then the rows are deleted,
+     * rows left by a crash in between are archived again and deduplicated by key
+     * a row changed between read and delete is not deleted, its copy is replaced by the row
+     * as it is now if still due, or dropped from the archive
+     * @param dbAdapter AlarmEventDbAdapter
+     * @param horizon Calendar events started before are archived
+     * @param minBatch int do nothing when fewer events are due, the whole file is copied each time
+     * @return archived event count
+     * @throws IOException if the archive can not be written, alarm_event is left as it is
+     */
+    public synchronized int archive(AlarmEventDbAdapter dbAdapter, Calendar horizon, int minBatch)
+            throws IOException {
+        List<AlarmEvent> dueEvents = dbAdapter.find(new AlarmEventCriteria()
+                .finished()
+                .notDeleted()
+                .startedBetween(null, horizon)
+                .oldestFirst());
+        if (dueEvents.isEmpty() || dueEvents.size() < minBatch) {
+            return 0;
+        }
+        long newHorizon = Math.max(records.horizon, horizon.getTimeInMillis());
+        Set<String> changedIds = new HashSet<>();
+        int archivedCount = 0;
+        for (int round = 1; ; round++) {
+            Collections.sort(dueEvents, KEY_ORDER);
+            writeMerged(records, dueEvents, changedIds, newHorizon);
+            records = load(file);
+            if (dueEvents.isEmpty()) {
+                break;
+            }
+            List<AlarmEvent> skipped = dbAdapter.deleteArchived(dueEvents);
+            archivedCount += dueEvents.size() - skipped.size();
+            if (skipped.isEmpty()) {
+                break;
+            }
+            // drop the stale copies, archive the rows again as they are now, or leave them to a later run
+            changedIds.clear();
+            dueEvents = new ArrayList<>();
+            for (AlarmEvent alarmEvent : skipped) {
+                changedIds.add(alarmEvent.getEventId());
+                AlarmEvent current = null;
+                if (round < MAX_ARCHIVE_ROUNDS) {
+                    current = dbAdapter.getByEventId(alarmEvent.getEventId());
+                }
+                if (current != null && current.isFinished() && !current.isDeleted()
+                        && current.getStartAtMillis() < horizon.getTimeInMillis()) {
+                    dueEvents.add(current);
+                }
+            }
+        }
+        SocialClockLogger.log("AlarmEventArchive: archived " + archivedCount
+                + ", total " + records.count);
+        return archivedCount;
+    }
+
+    /**
+     * write current records without the dropped event ids merged with the added events
+     * into a new file, and rename it over the archive
+     * current records and strings are copied as bytes in one pass, so only added events are on the heap,
+     * an added event replaces an archived copy of the same key
+     * strings of added events are appended after the current ones, whose refs stay valid,
+     * strings of dropped records are left unreferenced
+     * @param current Records of the current file
+     * @param added AlarmEvent list sorted by key
+     * @param droppedIds Set of event ids not copied from the current file
+     * @param horizon long of the new file
+     */
+    private void writeMerged(Records current, List<AlarmEvent> added, Set<String> droppedIds, long horizon)
+            throws IOException {
+        Map<String, Integer> addedStringRefs = new LinkedHashMap<>();
+        for (AlarmEvent alarmEvent : added) {
+            addString(addedStringRefs, alarmEvent.getEventId(), current.stringCount);
+            addString(addedStringRefs, alarmEvent.getUserId(), current.stringCount);
+            addString(addedStringRefs, alarmEvent.getUserName(), current.stringCount);
+        }
+        List<byte[]> addedStrings = new ArrayList<>(addedStringRefs.size());
+        for (String string : addedStringRefs.keySet()) {
+            addedStrings.add(string.getBytes(UTF_8));
+        }
+        int stringCount = current.stringCount + addedStrings.size();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOutput = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(horizon);
+            // record count is known after the merge, written below
+            output.writeInt(0);
+            output.writeInt(stringCount);
+
+            ByteBuffer source = current.buffer != null ? current.buffer.duplicate() : null;
+            byte[] recordBytes = new byte[RECORD_SIZE];
+            int count = 0;
+            int index = 0;
+            int addedIndex = 0;
+            while (index < current.count || addedIndex < added.size()) {
+                if (index < current.count && !droppedIds.isEmpty()
+                        && droppedIds.contains(current.getEventId(index))) {
+                    index++;
+                    continue;
+                }
+                int order;
+                if (index == current.count) {
+                    order = 1;
+                } else if (addedIndex == added.size()) {
+                    order = -1;
+                } else {
+                    AlarmEvent alarmEvent = added.get(addedIndex);
+                    order = current.compareKey(index, alarmEvent.getStartAtMillis(), alarmEvent.getEventId());
+                }
+                if (order < 0) {
+                    source.position(HEADER_SIZE + index * RECORD_SIZE);
+                    source.get(recordBytes);
+                    output.write(recordBytes);
+                    index++;
+                } else {
+                    if (order == 0) {
+                        index++;
+                    }
+                    writeRecord(output, added.get(addedIndex++), addedStringRefs);
+                }
+                count++;
+            }
+
+            // current strings move by the change of the record count, added ones follow
+            int stringsPosition = HEADER_SIZE + count * RECORD_SIZE + stringCount * 4;
+            int currentStringsPosition = current.stringOffsetsPosition + current.stringCount * 4;
+            int currentStringsSize = current.buffer != null ? current.buffer.limit() - currentStringsPosition : 0;
+            for (int ref = 0; ref < current.stringCount; ref++) {
+                output.writeInt(current.getStringOffset(ref) - currentStringsPosition + stringsPosition);
+            }
+            int offset = stringsPosition + currentStringsSize;
+            for (byte[] string : addedStrings) {
+                output.writeInt(offset);
+                offset += 2 + string.length;
+            }
+            if (currentStringsSize > 0) {
+                byte[] currentStrings = new byte[currentStringsSize];
+                source.position(currentStringsPosition);
+                source.get(currentStrings);
+                output.write(currentStrings);
+            }
+            for (byte[] string : addedStrings) {
+                output.writeShort(string.length);
+                output.write(string);
+            }
+            output.flush();
+            ByteBuffer countBytes = ByteBuffer.allocate(4);
+            countBytes.putInt(0, count);
+            fileOutput.getChannel().write(countBytes, 16);
+            fileOutput.getFD().sync();
+        } finally {
+            fileOutput.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("rename " + tempFile + " fail");
+        }
+    }
+
+    private static void writeRecord(DataOutputStream output, AlarmEvent alarmEvent, Map<String, Integer> stringRefs)
+            throws IOException {
+        output.writeLong(alarmEvent.getStartAtMillis());
+        output.writeLong(toFileTime(alarmEvent.getEndAtMillis()));
+        output.writeLong(toFileTime(alarmEvent.getSyncAtMillis()));
+        output.writeInt(alarmEvent.getSnoozeTimes());
+        output.writeInt(toRef(stringRefs, alarmEvent.getEventId()));
+        output.writeInt(toRef(stringRefs, alarmEvent.getUserId()));
+        output.writeInt(toRef(stringRefs, alarmEvent.getUserName()));
+    }
+
+    private static void addString(Map<String, Integer> stringRefs, String string, int firstRef) {
+        if (string != null && !stringRefs.containsKey(string)) {
+            stringRefs.put(string, firstRef + stringRefs.size());
+        }
+    }
+
+    private static int toRef(Map<String, Integer> stringRefs, String string) {
+        return string == null ? NULL_REF : stringRefs.get(string);
+    }
+
+    private static long toFileTime(long millis) {
+        return millis == AlarmEvent.NO_TIME ? NULL_TIME : millis;
+    }
+
+    private static int compareKey(long startAt, String eventId, long otherStartAt, String otherEventId) {
+        if (startAt != otherStartAt) {
+            return startAt < otherStartAt ? -1 : 1;
+        }
+        return eventId.compareTo(otherEventId);
+    }
+
+    /**
+     * map the archive file, an unreadable file is moved aside and an empty archive is used
+     */
+    private static Records load(File file) {
+        if (!file.exists()) {
+            return Records.EMPTY;
+        }
+        try {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                FileChannel channel = input.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("bad header");
+                }
+                Records loaded = new Records(buffer);
+                loaded.validate();
+                return loaded;
+            } finally {
+                // the mapping stays valid after close
+                input.close();
+            }
+        } catch (IOException e) {
+            SocialClockLogger.error("AlarmEventArchive: load " + file + " fail. " + e.toString());
+            file.renameTo(new File(file.getPath() + ".corrupt"));
+            return Records.EMPTY;
+        }
+    }
+
+    /**
+     * Read-only view of one archive file, absolute reads only so it is shared by threads
+     */
+    private static class Records {
+
+        private static final Records EMPTY = new Records(null);
+
+        private final ByteBuffer buffer;
+        private final long horizon;
+        private final int count;
+        private final int stringCount;
+        private final int stringOffsetsPosition;
+
+        private Records(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.horizon = buffer == null ? 0 : buffer.getLong(8);
+            this.count = buffer == null ? 0 : buffer.getInt(16);
+            this.stringCount = buffer == null ? 0 : buffer.getInt(20);
+            this.stringOffsetsPosition = HEADER_SIZE + count * RECORD_SIZE;
+        }
+
+        /**
+         * check the header counts, string table and refs against the file size,
+         * so a truncated or corrupt file fails here and not in a later read
+         */
+        private void validate() throws IOException {
+            int limit = buffer.limit();
+            if (count < 0 || stringCount < 0
+                    || HEADER_SIZE + (long) count * RECORD_SIZE + (long) stringCount * 4 > limit) {
+                throw new IOException("bad counts " + count + ", " + stringCount + " for size " + limit);
+            }
+            int stringsPosition = stringOffsetsPosition + stringCount * 4;
+            for (int ref = 0; ref < stringCount; ref++) {
+                int offset = buffer.getInt(stringOffsetsPosition + ref * 4);
+                if (offset < stringsPosition || offset > limit - 2
+                        || offset + 2 + (buffer.getShort(offset) & 0xffff) > limit) {
+                    throw new IOException("bad string offset " + offset);
+                }
+            }
+            for (int index = 0; index < count; index++) {
+                int position = HEADER_SIZE + index * RECORD_SIZE;
+                // event id is required, user id and name may be null
+                for (int refPosition = position + 28; refPosition <= position + 36; refPosition += 4) {
+                    int ref = buffer.getInt(refPosition);
+                    boolean isNull = ref == NULL_REF && refPosition != position + 28;
+                    if (!isNull && (ref < 0 || ref >= stringCount)) {
+                        throw new IOException("bad string ref " + ref + " of record " + index);
+                    }
+                }
+            }
+        }
+
+        private long getStartAt(int index) {
+            return buffer.getLong(HEADER_SIZE + index * RECORD_SIZE);
+        }
+
+        private long getEndAt(int index) {
+            return buffer.getLong(HEADER_SIZE + index * RECORD_SIZE + 8);
+        }
+
+        private int getSnoozeTimes(int index) {
+            return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + 24);
+        }
+
+        private String getEventId(int index) {
+            return getString(buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + 28));
+        }
+
+        /** order of the record at index against the key (startAt, eventId) */
+        private int compareKey(int index, long startAt, String eventId) {
+            long recordStartAt = getStartAt(index);
+            if (recordStartAt != startAt) {
+                return recordStartAt < startAt ? -1 : 1;
+            }
+            return getEventId(index).compareTo(eventId);
+        }
+
+        private int getStringOffset(int ref) {
+            return buffer.getInt(stringOffsetsPosition + ref * 4);
+        }
+
+        private AlarmEvent read(int index) {
+            int position = HEADER_SIZE + index * RECORD_SIZE;
+            return new AlarmEvent(
+                    getString(buffer.getInt(position + 28)),
+                    getString(buffer.getInt(position + 32)),
+                    getString(buffer.getInt(position + 36)),
+                    buffer.getLong(position),
+                    toMillis(buffer.getLong(position + 8)),
+                    buffer.getInt(position + 24),
+                    toMillis(buffer.getLong(position + 16)),
+                    AlarmEvent.NO_TIME,
+                    0);
+        }
+
+        private String getString(int ref) {
+            if (ref == NULL_REF) {
+                return null;
+            }
+            int offset = getStringOffset(ref);
+            byte[] bytes = new byte[buffer.getShort(offset) & 0xffff];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(offset + 2 + i);
+            }
+            try {
+                return new String(bytes, UTF_8);
+            } catch (UnsupportedEncodingException e) {
+                // every platform supports UTF-8
+                throw new AssertionError(e);
+            }
+        }
+
+        /** first index with start_at >= startAt, count if none */
+        private int lowerBound(long startAt) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getStartAt(middle) < startAt) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /** last index with key before (startAt, eventId), -1 if none */
+        private int lastBefore(long startAt, String eventId) {
+            int index = lowerBound(startAt);
+            while (index < count && getStartAt(index) == startAt
+                    && getEventId(index).compareTo(eventId) < 0) {
+                index++;
+            }
+            return index - 1;
+        }
+
+        private static long toMillis(long fileTime) {
+            return fileTime == NULL_TIME ? AlarmEvent.NO_TIME : fileTime;
+        }
+    }
+}
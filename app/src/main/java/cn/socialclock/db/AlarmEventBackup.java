@@ -0,0 +1,361 @@
+package cn.socialclock.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ * Streaming binary export and import of alarm history, db and archive.
+ *
+ * format:
+ *   magic "SCBK", varint version
+ *   records, each: byte RECORD, byte flags, string event_id,
+ *                  zigzag varint start_at delta from the previous record,
+ *                  zigzag varint end_at, sync_at and deleted_at delta from start_at if set,
+ *                  varint snooze_times, user_id and user_name as string refs if set
+ *   byte END
+ * a string ref is varint 0 followed by a new string, which gets the next index,
+ * or varint index + 1 of a string already written
+ * strings are varint byte length and UTF-8 bytes
+ */
+public class AlarmEventBackup {
+
+    private static final int MAGIC = 0x5343424b; // "SCBK"
+    private static final int VERSION = 1;
+
+    private static final int RECORD = 1;
+    private static final int END = 0;
+
+    /* flags of set fields */
+    private static final int HAS_START_AT = 1;
+    private static final int HAS_END_AT = 1 << 1;
+    private static final int HAS_SYNC_AT = 1 << 2;
+    private static final int HAS_DELETED_AT = 1 << 3;
+    private static final int HAS_USER_ID = 1 << 4;
+    private static final int HAS_USER_NAME = 1 << 5;
+
+    // events per import transaction
+    private static final int IMPORT_CHUNK_SIZE = 500;
+
+    // charset name, the Charset overloads need API 9
+    private static final String UTF_8 = "UTF-8";
+
+    private AlarmEventDatabaseHelper dbHelper;
+    private AlarmEventDbAdapter dbAdapter;
+    private AlarmEventArchive archive;
+
+    /**
+     * Constructor
+     * @param context Context
+     */
+    public AlarmEventBackup(Context context) {
+        this.dbHelper = AlarmEventDatabaseHelper.getInstance(context, DbConstants.DB_VERSION);
+        this.dbAdapter = new AlarmEventDbAdapter(context);
+        this.archive = AlarmEventArchive.getInstance(context);
+    }
+
+    /**
+     * write all archived and db events, oldest first, in constant memory
+     * both are read in (start_at, event_id) order and merged like AlarmEventDbAdapter.loadHistory,
+     * a row in both, left by an interrupted archive run, is written once from db
+     * db rows are read in one transaction, so a long export sees one version of them,
+     * call it on the writer thread, which also runs archiving
+     * @param outputStream OutputStream, not closed
+     * @return exported event count
+     * @throws IOException if writing fails
+     */
+    public int exportTo(OutputStream outputStream) throws IOException {
+        Writer writer = new Writer(new BufferedOutputStream(outputStream));
+        writer.writeHeader();
+        Iterator<AlarmEvent> archived = archive.iterateAll();
+        AlarmEvent nextArchived = archived.hasNext() ? archived.next() : null;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        AlarmEventDatabaseHelper.beginTransaction(db);
+        try {
+            AlarmEventCursor cursor = dbAdapter.query(new AlarmEventCriteria().oldestFirst());
+            try {
+                while (cursor.moveToNext()) {
+                    long startAt = cursor.getStartAtMillis();
+                    String eventId = cursor.getEventId();
+                    while (nextArchived != null) {
+                        int order = nextArchived.getStartAtMillis() != startAt
+                                ? (nextArchived.getStartAtMillis() < startAt ? -1 : 1)
+                                : nextArchived.getEventId().compareTo(eventId);
+                        if (order > 0) {
+                            break;
+                        }
+                        // an archived copy of this row is skipped, the row is written below
+                        if (order < 0) {
+                            writer.write(nextArchived);
+                        }
+                        nextArchived = archived.hasNext() ? archived.next() : null;
+                    }
+                    writer.write(cursor.toAlarmEvent());
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            // read only, nothing to commit
+            db.endTransaction();
+        }
+        for (; nextArchived != null; nextArchived = archived.hasNext() ? archived.next() : null) {
+            writer.write(nextArchived);
+        }
+        writer.writeEnd();
+        SocialClockLogger.log("AlarmEventBackup: exported " + writer.count);
+        return writer.count;
+    }
+
+    /**
+     * read events and insert them in chunked transactions, events in db or archive are skipped
+     * inserted events are added to alarm stats by the insert,
+     * events older than the archive horizon are archived by the next maintenance
+     * @param inputStream InputStream, not closed
+     * @return inserted event count
+     * @throws IOException if the stream is not a backup or ends early,
+     *         chunks inserted before stay
+     */
+    public int importFrom(InputStream inputStream) throws IOException {
+        Reader reader = new Reader(new BufferedInputStream(inputStream));
+        reader.readHeader();
+        int inserted = 0;
+        List<AlarmEvent> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        AlarmEvent alarmEvent;
+        while ((alarmEvent = reader.read()) != null) {
+            // an archived event is not in db, inserting it would list and count it twice
+            if (archive.contains(alarmEvent.getStartAtMillis(), alarmEvent.getEventId())) {
+                continue;
+            }
+            chunk.add(alarmEvent);
+            if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                inserted += dbAdapter.insertAll(chunk);
+                chunk.clear();
+            }
+        }
+        inserted += dbAdapter.insertAll(chunk);
+        SocialClockLogger.log("AlarmEventBackup: imported " + inserted + " of " + reader.count);
+        return inserted;
+    }
+
+    /**
+     * Encoder of the record stream
+     */
+    static class Writer {
+
+        private final OutputStream output;
+        private final Map<String, Integer> stringRefs = new HashMap<>();
+        private long lastStartAt;
+        private int count;
+
+        Writer(OutputStream output) {
+            this.output = output;
+        }
+
+        void writeHeader() throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                output.write(MAGIC >>> shift);
+            }
+            writeVarLong(VERSION);
+        }
+
+        void write(AlarmEvent alarmEvent) throws IOException {
+            int flags = 0;
+            flags |= alarmEvent.getStartAtMillis() != AlarmEvent.NO_TIME ? HAS_START_AT : 0;
+            flags |= alarmEvent.getEndAtMillis() != AlarmEvent.NO_TIME ? HAS_END_AT : 0;
+            flags |= alarmEvent.getSyncAtMillis() != AlarmEvent.NO_TIME ? HAS_SYNC_AT : 0;
+            flags |= alarmEvent.getDeletedAtMillis() != AlarmEvent.NO_TIME ? HAS_DELETED_AT : 0;
+            flags |= alarmEvent.getUserId() != null ? HAS_USER_ID : 0;
+            flags |= alarmEvent.getUserName() != null ? HAS_USER_NAME : 0;
+            output.write(RECORD);
+            output.write(flags);
+            writeString(alarmEvent.getEventId());
+            long startAt = lastStartAt;
+            if ((flags & HAS_START_AT) != 0) {
+                startAt = alarmEvent.getStartAtMillis();
+                writeZigZag(startAt - lastStartAt);
+                lastStartAt = startAt;
+            }
+            writeTime(alarmEvent.getEndAtMillis(), startAt);
+            writeTime(alarmEvent.getSyncAtMillis(), startAt);
+            writeTime(alarmEvent.getDeletedAtMillis(), startAt);
+            writeVarLong(alarmEvent.getSnoozeTimes());
+            writeStringRef(alarmEvent.getUserId());
+            writeStringRef(alarmEvent.getUserName());
+            count++;
+        }
+
+        void writeEnd() throws IOException {
+            output.write(END);
+            output.flush();
+        }
+
+        private void writeTime(long millis, long startAt) throws IOException {
+            if (millis != AlarmEvent.NO_TIME) {
+                writeZigZag(millis - startAt);
+            }
+        }
+
+        private void writeStringRef(String string) throws IOException {
+            if (string == null) {
+                return;
+            }
+            Integer ref = stringRefs.get(string);
+            if (ref != null) {
+                writeVarLong(ref + 1);
+            } else {
+                writeVarLong(0);
+                writeString(string);
+                stringRefs.put(string, stringRefs.size());
+            }
+        }
+
+        private void writeString(String string) throws IOException {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarLong(bytes.length);
+            output.write(bytes);
+        }
+
+        private void writeZigZag(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                output.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            output.write((int) value);
+        }
+    }
+
+    /**
+     * Decoder of the record stream
+     */
+    static class Reader {
+
+        private final InputStream input;
+        private final List<String> strings = new ArrayList<>();
+        private long lastStartAt;
+        private int count;
+
+        Reader(InputStream input) {
+            this.input = input;
+        }
+
+        void readHeader() throws IOException {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                magic = (magic << 8) | readByte();
+            }
+            if (magic != MAGIC) {
+                throw new IOException("not an alarm event backup");
+            }
+            long version = readVarLong();
+            if (version != VERSION) {
+                throw new IOException("unsupported backup version " + version);
+            }
+        }
+
+        /** @return next AlarmEvent, or null at the end */
+        AlarmEvent read() throws IOException {
+            int tag = readByte();
+            if (tag == END) {
+                return null;
+            }
+            if (tag != RECORD) {
+                throw new IOException("bad record tag " + tag);
+            }
+            int flags = readByte();
+            String eventId = readString();
+            long startAt = lastStartAt;
+            if ((flags & HAS_START_AT) != 0) {
+                startAt = lastStartAt + readZigZag();
+                lastStartAt = startAt;
+            }
+            long endAt = readTime(flags, HAS_END_AT, startAt);
+            long syncAt = readTime(flags, HAS_SYNC_AT, startAt);
+            long deletedAt = readTime(flags, HAS_DELETED_AT, startAt);
+            int snoozeTimes = (int) readVarLong();
+            String userId = (flags & HAS_USER_ID) != 0 ? readStringRef() : null;
+            String userName = (flags & HAS_USER_NAME) != 0 ? readStringRef() : null;
+            count++;
+            return new AlarmEvent(eventId, userId, userName,
+                    (flags & HAS_START_AT) != 0 ? startAt : AlarmEvent.NO_TIME,
+                    endAt, snoozeTimes, syncAt, deletedAt, 0);
+        }
+
+        private long readTime(int flags, int flag, long startAt) throws IOException {
+            if ((flags & flag) == 0) {
+                return AlarmEvent.NO_TIME;
+            }
+            return startAt + readZigZag();
+        }
+
+        private String readStringRef() throws IOException {
+            long ref = readVarLong();
+            if (ref == 0) {
+                String string = readString();
+                strings.add(string);
+                return string;
+            }
+            if (ref > strings.size()) {
+                throw new IOException("bad string ref " + ref);
+            }
+            return strings.get((int) ref - 1);
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[(int) readVarLong()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = input.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            return new String(bytes, UTF_8);
+        }
+
+        private long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("bad varint");
+        }
+
+        private int readByte() throws IOException {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+    }
+}
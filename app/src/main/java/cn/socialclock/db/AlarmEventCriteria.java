@@ -0,0 +1,143 @@
+package cn.socialclock.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * @author mapler
+ * Typed filter, order, limit and columns of an alarm_event query.
+ * Compiled to a parameterized selection, so rows are filtered in SQLite
+ * and only the selected columns are read.
+ * ex. new AlarmEventCriteria().finished().notDeleted().limit(50)
+ */
+public class AlarmEventCriteria {
+
+    private final List<String> terms = new ArrayList<>();
+    private final List<String> args = new ArrayList<>();
+    private String[] columns;
+    private boolean newestFirst = true;
+    private int limit;
+
+    /** end_at is set */
+    public AlarmEventCriteria finished() {
+        terms.add(AlarmEventDbAdapter.COLUMN_END_AT + " IS NOT NULL");
+        return this;
+    }
+
+    /** end_at is not set */
+    public AlarmEventCriteria unfinished() {
+        terms.add(AlarmEventDbAdapter.COLUMN_END_AT + " IS NULL");
+        return this;
+    }
+
+    /** deleted_at is set */
+    public AlarmEventCriteria deleted() {
+        terms.add(AlarmEventDbAdapter.COLUMN_DELETED_AT + " IS NOT NULL");
+        return this;
+    }
+
+    /** deleted_at is not set */
+    public AlarmEventCriteria notDeleted() {
+        terms.add(AlarmEventDbAdapter.COLUMN_DELETED_AT + " IS NULL");
+        return this;
+    }
+
+    /**
+     * events of one user
+     * @param userId String
+     */
+    public AlarmEventCriteria userId(String userId) {
+        terms.add(AlarmEventDbAdapter.COLUMN_USER_ID + "=?");
+        args.add(userId);
+        return this;
+    }
+
+    /**
+     * events started in [from, to), either may be null for no bound
+     * @param from Calendar inclusive
+     * @param to Calendar exclusive
+     */
+    public AlarmEventCriteria startedBetween(Calendar from, Calendar to) {
+        if (from != null) {
+            terms.add(AlarmEventDbAdapter.COLUMN_START_AT + ">=?");
+            args.add(Long.toString(from.getTimeInMillis()));
+        }
+        if (to != null) {
+            terms.add(AlarmEventDbAdapter.COLUMN_START_AT + "<?");
+            args.add(Long.toString(to.getTimeInMillis()));
+        }
+        return this;
+    }
+
+    /** order by start_at ascending, default is newest first */
+    public AlarmEventCriteria oldestFirst() {
+        newestFirst = false;
+        return this;
+    }
+
+    /**
+     * read at most limit rows
+     * @param limit int, 0 for no limit
+     */
+    public AlarmEventCriteria limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * read only these columns, AlarmEventDbAdapter.COLUMN_*
+     * event_id is always read, other fields of the events are null or 0
+     * @param columns String...
+     */
+    public AlarmEventCriteria columns(String... columns) {
+        List<String> knownColumns = Arrays.asList(AlarmEventDbAdapter.COLUMNS);
+        List<String> projection = new ArrayList<>();
+        projection.add(AlarmEventDbAdapter.COLUMN_EVENT_ID);
+        for (String column : columns) {
+            if (!knownColumns.contains(column)) {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+            if (!projection.contains(column)) {
+                projection.add(column);
+            }
+        }
+        this.columns = projection.toArray(new String[projection.size()]);
+        return this;
+    }
+
+    String[] getProjection() {
+        return columns != null ? columns : AlarmEventDbAdapter.COLUMNS;
+    }
+
+    /** terms joined by AND, or null for all rows */
+    String getSelection() {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        StringBuilder selection = new StringBuilder();
+        for (String term : terms) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(term);
+        }
+        return selection.toString();
+    }
+
+    String[] getSelectionArgs() {
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    /** (start_at, event_id), the key of the start_at indexes */
+    String getOrderBy() {
+        String direction = newestFirst ? " DESC" : " ASC";
+        return AlarmEventDbAdapter.COLUMN_START_AT + direction + ","
+                + AlarmEventDbAdapter.COLUMN_EVENT_ID + direction;
+    }
+
+    String getLimit() {
+        return limit > 0 ? Integer.toString(limit) : null;
+    }
+}
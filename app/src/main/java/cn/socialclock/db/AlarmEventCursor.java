@@ -0,0 +1,132 @@
+package cn.socialclock.db;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import java.util.Calendar;
+
+import cn.socialclock.model.AlarmEvent;
+
+/**
+ * @author mapler
+ * Read-only view of the alarm event at the cursor position.
+ * Columns are decoded only when their getter is called, nothing is allocated per row
+ * unless asked for, ex. a Calendar by getStartAt or an AlarmEvent by toAlarmEvent.
+ * Columns not in the query read as null, 0 or false.
+ */
+public class AlarmEventCursor extends CursorWrapper {
+
+    private final int eventIdIndex;
+    private final int userIdIndex;
+    private final int userNameIndex;
+    private final int startAtIndex;
+    private final int endAtIndex;
+    private final int snoozeTimesIndex;
+    private final int syncAtIndex;
+    private final int deletedAtIndex;
+    private final int rowVersionIndex;
+
+    /**
+     * Constructor, column indexes are looked up once here
+     * @param cursor Cursor of alarm_event columns
+     */
+    AlarmEventCursor(Cursor cursor) {
+        super(cursor);
+        eventIdIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_EVENT_ID);
+        userIdIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_USER_ID);
+        userNameIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_USER_NAME);
+        startAtIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_START_AT);
+        endAtIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_END_AT);
+        snoozeTimesIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_SNOOZE_TIMES);
+        syncAtIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_SYNC_AT);
+        deletedAtIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_DELETED_AT);
+        rowVersionIndex = cursor.getColumnIndex(AlarmEventDbAdapter.COLUMN_ROW_VERSION);
+    }
+
+    public String getEventId() {
+        return readString(eventIdIndex);
+    }
+
+    public String getUserId() {
+        return readString(userIdIndex);
+    }
+
+    public String getUserName() {
+        return readString(userNameIndex);
+    }
+
+    /** @return start_at epoch millis, 0 if null */
+    public long getStartAtMillis() {
+        return readMillis(startAtIndex);
+    }
+
+    /** @return end_at epoch millis, 0 if not finished */
+    public long getEndAtMillis() {
+        return readMillis(endAtIndex);
+    }
+
+    public boolean isFinished() {
+        return !readNull(endAtIndex);
+    }
+
+    public boolean isDeleted() {
+        return !readNull(deletedAtIndex);
+    }
+
+    public int getSnoozeTimes() {
+        return snoozeTimesIndex < 0 ? 0 : getInt(snoozeTimesIndex);
+    }
+
+    public long getRowVersion() {
+        return rowVersionIndex < 0 ? 0 : getLong(rowVersionIndex);
+    }
+
+    /** @return new Calendar of start_at, or null */
+    public Calendar getStartAt() {
+        return readCalendar(startAtIndex);
+    }
+
+    /** @return new Calendar of end_at, or null */
+    public Calendar getEndAt() {
+        return readCalendar(endAtIndex);
+    }
+
+    /**
+     * copy the row at the cursor position into an AlarmEvent
+     * @return AlarmEvent object
+     */
+    public AlarmEvent toAlarmEvent() {
+        return new AlarmEvent(
+                getEventId(),
+                getUserId(),
+                getUserName(),
+                readMillis(startAtIndex),
+                readMillis(endAtIndex),
+                getSnoozeTimes(),
+                readMillis(syncAtIndex),
+                readMillis(deletedAtIndex),
+                getRowVersion()
+        );
+    }
+
+    private boolean readNull(int index) {
+        return index < 0 || isNull(index);
+    }
+
+    private String readString(int index) {
+        return index < 0 ? null : getString(index);
+    }
+
+    private long readMillis(int index) {
+        return readNull(index) ? 0 : getLong(index);
+    }
+
+    private Calendar readCalendar(int index) {
+        if (readNull(index)) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(getLong(index));
+        return calendar;
+    }
+}
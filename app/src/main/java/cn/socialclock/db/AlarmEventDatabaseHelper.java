@@ -1,18 +1,45 @@
 package cn.socialclock.db;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import cn.socialclock.utils.SocialClockLogger;
 
 /**
  * @author mapler
  * Manage DB
+ * One helper (and so one connection) is shared by the whole process,
+ * the database is never closed by callers.
  */
 public class AlarmEventDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DB_NAME = "social_clock_db";
 
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static AlarmEventDatabaseHelper instance;
+
+    private StatementCache statementCache;
+
+    /**
+     * Get the process wide helper
+     * @param context Context, only the application context is kept
+     * @param version int db version
+     * @return AlarmEventDatabaseHelper
+     */
+    public static synchronized AlarmEventDatabaseHelper getInstance(Context context, int version) {
+        if (instance == null) {
+            instance = new AlarmEventDatabaseHelper(context.getApplicationContext(), null, version);
+        }
+        return instance;
+    }
+
     /**
      * Constructor
      */
@@ -23,26 +50,182 @@ public class AlarmEventDatabaseHelper extends SQLiteOpenHelper {
         super(context, DB_NAME, factory, version);
     }
 
+    /**
+     * set incremental auto-vacuum, then enable write-ahead logging (API 16+)
+     * auto_vacuum only applies to a new file if set before the WAL switch writes its header
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        setIncrementalVacuum(db);
+        // readers (history) do not block the writer (alarm path)
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Get compiled statements of the shared connection
+     * @return StatementCache
+     */
+    public synchronized StatementCache getStatementCache() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (statementCache == null || statementCache.getDatabase() != db) {
+            if (statementCache != null) {
+                statementCache.close();
+            }
+            statementCache = new StatementCache(db);
+        }
+        return statementCache;
+    }
+
     /**
      * create tables
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // before the first table, there is no onConfigure before API 16
+        setIncrementalVacuum(db);
         for (String createTableSql: DbConstants.CREATE_TABLE_QUERIES) {
             db.execSQL(createTableSql);
         }
+        for (String createIndexSql: DbConstants.CREATE_INDEX_QUERIES) {
+            db.execSQL(createIndexSql);
+        }
+        if (isPartialIndexSupported()) {
+            for (String createIndexSql: DbConstants.CREATE_PARTIAL_INDEX_QUERIES) {
+                db.execSQL(createIndexSql);
+            }
+        } else {
+            for (String createIndexSql: DbConstants.CREATE_PARTIAL_INDEX_FALLBACK_QUERIES) {
+                db.execSQL(createIndexSql);
+            }
+        }
+    }
+
+    /**
+     * begin a transaction which does not block readers of the write-ahead log
+     * @param db SQLiteDatabase
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void beginTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * partial indexes need SQLite 3.8, bundled since Lollipop
+     * @return boolean
+     */
+    static boolean isPartialIndexSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * enable write-ahead logging on devices without onConfigure, after onCreate set auto_vacuum
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * incremental auto-vacuum for a new db file, takes effect when its first table is created
+     */
+    private static void setIncrementalVacuum(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+    }
+
+    /**
+     * switch a db file created without incremental auto-vacuum, once
+     * the full VACUUM rewrites the whole file, call it on the writer thread, outside a transaction
+     * @return boolean true if the file was vacuumed
+     */
+    public boolean requireIncrementalVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            return false;
+        }
+        SocialClockLogger.log("AlarmEventDatabaseHelper: enable incremental auto-vacuum");
+        setIncrementalVacuum(db);
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    /**
+     * give free pages back to the file system, at most maxPages
+     * @param maxPages int
+     * @return reclaimed page count
+     */
+    public int incrementalVacuum(int maxPages) {
+        SQLiteDatabase db = getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (freePages == 0) {
+            return 0;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+        try {
+            // stepping the pragma frees the pages
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        return (int) (freePages - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
     }
 
     /**
-     * recreate tables with new version
+     * migrate tables step by step to the new version, keeping user data
+     * recreate tables only when some step has no migration
+     * SQLiteOpenHelper runs this inside one transaction
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        for (String dropTableSql: DbConstants.DROP_TABLE_QUERIES) {
-            db.execSQL(dropTableSql);
+        if (!hasMigrations(oldVersion, newVersion)) {
+            SocialClockLogger.error("AlarmEventDatabaseHelper: no migration from "
+                    + oldVersion + " to " + newVersion + ", recreate tables");
+            for (String dropTableSql: DbConstants.DROP_TABLE_QUERIES) {
+                db.execSQL(dropTableSql);
+            }
+            onCreate(db);
+            return;
         }
-        for (String createTableSql: DbConstants.CREATE_TABLE_QUERIES) {
-            db.execSQL(createTableSql);
+        for (DbMigration migration: DbConstants.MIGRATIONS) {
+            if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion) {
+                SocialClockLogger.log("AlarmEventDatabaseHelper: migrate to " + migration.getVersion());
+                migration.migrate(db);
+            }
+        }
+    }
+
+    /**
+     * check every version step between oldVersion and newVersion has a migration
+     */
+    private static boolean hasMigrations(int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            boolean found = false;
+            for (DbMigration migration: DbConstants.MIGRATIONS) {
+                if (migration.getVersion() == version) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
         }
+        return true;
     }
 }
@@ -1,15 +1,22 @@
 package cn.socialclock.db;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import cn.socialclock.model.AlarmEvent;
-import cn.socialclock.utils.DatetimeFormatter;
+import cn.socialclock.model.AlarmEventPage;
+import cn.socialclock.model.AlarmHistory;
+import cn.socialclock.utils.ConstantData;
 import cn.socialclock.utils.SocialClockLogger;
 
 /**
@@ -18,21 +25,21 @@ import cn.socialclock.utils.SocialClockLogger;
  */
 public class AlarmEventDbAdapter {
 
-    private static final int DB_VERSION = 2;
-
     // table name
     private static final String TABLE_NAME = "alarm_event";
 
     /* table columns */
-    private static final String COLUMN_EVENT_ID = "event_id";
-    private static final String COLUMN_USER_ID = "user_id";
-    private static final String COLUMN_USER_NAME = "user_name";
-    private static final String COLUMN_START_AT = "start_at";
-    private static final String COLUMN_END_AT = "end_at";
-    private static final String COLUMN_SNOOZE_TIMES = "snooze_times";
-    private static final String COLUMN_SYNC_AT = "sync_at";
-    private static final String COLUMN_DELETED_AT = "deleted_at";
-    private static final String[] COLUMNS = {
+    public static final String COLUMN_EVENT_ID = "event_id";
+    public static final String COLUMN_USER_ID = "user_id";
+    public static final String COLUMN_USER_NAME = "user_name";
+    public static final String COLUMN_START_AT = "start_at";
+    public static final String COLUMN_END_AT = "end_at";
+    public static final String COLUMN_SNOOZE_TIMES = "snooze_times";
+    public static final String COLUMN_SYNC_AT = "sync_at";
+    public static final String COLUMN_DELETED_AT = "deleted_at";
+    // counted up by every update of the row, archiving deletes a row only at the version it read
+    public static final String COLUMN_ROW_VERSION = "row_version";
+    public static final String[] COLUMNS = {
             COLUMN_EVENT_ID,
             COLUMN_USER_ID,
             COLUMN_USER_NAME,
@@ -41,6 +48,7 @@ public class AlarmEventDbAdapter {
             COLUMN_SNOOZE_TIMES,
             COLUMN_SYNC_AT,
             COLUMN_DELETED_AT,
+            COLUMN_ROW_VERSION,
     };
 
     // alarm_event table create sql
@@ -49,19 +57,177 @@ public class AlarmEventDbAdapter {
             COLUMN_EVENT_ID + " TEXT PRIMARY KEY," +
             COLUMN_USER_ID + " TEXT," +
             COLUMN_USER_NAME + " TEXT," +
-            COLUMN_START_AT + " DATETIME DEFAULT CURRENT_TIMESTAMP," +
-            COLUMN_END_AT + " DATETIME DEFAULT NULL," +
+            COLUMN_START_AT + " INTEGER," +
+            COLUMN_END_AT + " INTEGER DEFAULT NULL," +
             COLUMN_SNOOZE_TIMES + " INTEGER DEFAULT 0," +
-            COLUMN_SYNC_AT + " DATETIME DEFAULT NULL," +
-            COLUMN_DELETED_AT + " DATETIME DEFAULT NULL" +
+            COLUMN_SYNC_AT + " INTEGER DEFAULT NULL," +
+            COLUMN_DELETED_AT + " INTEGER DEFAULT NULL," +
+            COLUMN_ROW_VERSION + " INTEGER NOT NULL DEFAULT 0" +
             ")";
 
+    // history listing, keyset paging and date-range reads
+    public static final String CREATE_START_AT_INDEX_QUERY = "" +
+            "CREATE INDEX IF NOT EXISTS alarm_event_start_at_idx ON " + TABLE_NAME +
+            "(" + COLUMN_START_AT + "," + COLUMN_EVENT_ID + ")";
+
+    // finished, not deleted events, the rows history shows (partial index, SQLite 3.8+)
+    private static final String FINISHED_SELECTION = "" +
+            COLUMN_END_AT + " IS NOT NULL AND " + COLUMN_DELETED_AT + " IS NULL";
+    private static final String FINISHED_INDEX = "alarm_event_finished_idx";
+    public static final String CREATE_FINISHED_INDEX_QUERY = "" +
+            "CREATE INDEX IF NOT EXISTS " + FINISHED_INDEX + " ON " + TABLE_NAME +
+            "(" + COLUMN_START_AT + "," + COLUMN_EVENT_ID + ") WHERE " + FINISHED_SELECTION;
+
     // alarm_event table drop sql
     public static final String DROP_TABLE_QUERY = "drop table if exists " + TABLE_NAME;
 
+    // version 3: DATETIME text (local time) columns to INTEGER epoch millis, rows converted in place
+    public static final DbMigration MIGRATION_V3 = new DbMigration(3,
+            "CREATE TABLE alarm_event_v3(" +
+                    "event_id TEXT PRIMARY KEY," +
+                    "user_id TEXT," +
+                    "user_name TEXT," +
+                    "start_at INTEGER," +
+                    "end_at INTEGER DEFAULT NULL," +
+                    "snooze_times INTEGER DEFAULT 0," +
+                    "sync_at INTEGER DEFAULT NULL," +
+                    "deleted_at INTEGER DEFAULT NULL" +
+                    ")",
+            "INSERT INTO alarm_event_v3 SELECT " +
+                    "event_id," +
+                    "user_id," +
+                    "user_name," +
+                    "CAST(strftime('%s', start_at, 'utc') AS INTEGER) * 1000," +
+                    "CAST(strftime('%s', end_at, 'utc') AS INTEGER) * 1000," +
+                    "snooze_times," +
+                    "CAST(strftime('%s', sync_at, 'utc') AS INTEGER) * 1000," +
+                    "CAST(strftime('%s', deleted_at, 'utc') AS INTEGER) * 1000" +
+                    " FROM alarm_event",
+            "DROP TABLE alarm_event",
+            "ALTER TABLE alarm_event_v3 RENAME TO alarm_event");
+
+    // version 4: start_at index and partial index of finished events
+    public static final DbMigration MIGRATION_V4 = new DbMigration(4,
+            "CREATE INDEX IF NOT EXISTS alarm_event_start_at_idx ON alarm_event(start_at)") {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            super.migrate(db);
+            if (AlarmEventDatabaseHelper.isPartialIndexSupported()) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS alarm_event_finished_idx ON alarm_event(start_at)"
+                        + " WHERE end_at IS NOT NULL AND deleted_at IS NULL");
+            }
+        }
+    };
+
+    // version 5: (start_at, event_id) indexes for keyset paging
+    public static final DbMigration MIGRATION_V5 = new DbMigration(5,
+            "DROP INDEX IF EXISTS alarm_event_start_at_idx",
+            "DROP INDEX IF EXISTS alarm_event_finished_idx",
+            "CREATE INDEX alarm_event_start_at_idx ON alarm_event(start_at, event_id)") {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            super.migrate(db);
+            if (AlarmEventDatabaseHelper.isPartialIndexSupported()) {
+                db.execSQL("CREATE INDEX alarm_event_finished_idx ON alarm_event(start_at, event_id)"
+                        + " WHERE end_at IS NOT NULL AND deleted_at IS NULL");
+            }
+        }
+    };
+
+    // version 7: alarm_action_log table, dropped again in version 10
+    public static final DbMigration MIGRATION_V7 = new DbMigration(7,
+            "CREATE TABLE alarm_action_log(" +
+                    "seq INTEGER PRIMARY KEY," +
+                    "event_id TEXT NOT NULL," +
+                    "action INTEGER NOT NULL," +
+                    "acted_at INTEGER NOT NULL" +
+                    ")",
+            "CREATE INDEX alarm_action_log_event_idx ON alarm_action_log(event_id, seq)");
+
+    // version 8: row version, counted up by every update, existing rows start at 0
+    public static final DbMigration MIGRATION_V8 = new DbMigration(8,
+            "ALTER TABLE alarm_event ADD COLUMN row_version INTEGER NOT NULL DEFAULT 0");
+
+    // version 10: alarm_action_log dropped with its index, actions are no longer logged
+    public static final DbMigration MIGRATION_V10 = new DbMigration(10,
+            "DROP TABLE IF EXISTS alarm_action_log");
+
+    /* hot statements, compiled once per connection */
+    private static final String INSERT_COLUMNS = "" +
+            COLUMN_EVENT_ID + "," +
+            COLUMN_USER_ID + "," +
+            COLUMN_USER_NAME + "," +
+            COLUMN_START_AT + "," +
+            COLUMN_END_AT + "," +
+            COLUMN_SNOOZE_TIMES + "," +
+            COLUMN_SYNC_AT + "," +
+            COLUMN_DELETED_AT;
+    private static final String ROW_VERSION_UP = "" +
+            COLUMN_ROW_VERSION + "=" + COLUMN_ROW_VERSION + "+1";
+    private static final String UPDATE_STATEMENT = "" +
+            "UPDATE " + TABLE_NAME + " SET " +
+            COLUMN_END_AT + "=?," +
+            COLUMN_SNOOZE_TIMES + "=?," +
+            COLUMN_SYNC_AT + "=?," +
+            COLUMN_DELETED_AT + "=?," +
+            ROW_VERSION_UP +
+            " WHERE " + COLUMN_EVENT_ID + "=?";
+    private static final String INSERT_IGNORE_STATEMENT = "" +
+            "INSERT OR IGNORE INTO " + TABLE_NAME + " (" + INSERT_COLUMNS + ") VALUES (?1,?2,?3,?4,?5,?6,?7,?8)";
+    // a replaced row keeps counting up its version, ?1 is the event id
+    private static final String UPSERT_STATEMENT = "" +
+            "INSERT OR REPLACE INTO " + TABLE_NAME + " (" + INSERT_COLUMNS + "," + COLUMN_ROW_VERSION +
+            ") VALUES (?1,?2,?3,?4,?5,?6,?7,?8,COALESCE((SELECT " + COLUMN_ROW_VERSION + "+1 FROM " + TABLE_NAME +
+            " WHERE " + COLUMN_EVENT_ID + "=?1),0))";
+    private static final String SNOOZE_STATEMENT = "" +
+            "UPDATE " + TABLE_NAME + " SET " +
+            COLUMN_SNOOZE_TIMES + "=" + COLUMN_SNOOZE_TIMES + "+?," +
+            ROW_VERSION_UP +
+            " WHERE " + COLUMN_EVENT_ID + "=? AND " + COLUMN_END_AT + " IS NULL";
+    private static final String FINISH_STATEMENT = "" +
+            "UPDATE " + TABLE_NAME + " SET " +
+            COLUMN_END_AT + "=?," +
+            ROW_VERSION_UP +
+            " WHERE " + COLUMN_EVENT_ID + "=? AND " + COLUMN_END_AT + " IS NULL";
+    // an event counted in alarm stats, same rows as history
+    private static final String COUNTED_EVENT_QUERY = "" +
+            "SELECT " + COLUMN_START_AT + "," + COLUMN_END_AT + "," + COLUMN_SNOOZE_TIMES + " FROM " + TABLE_NAME +
+            " WHERE " + COLUMN_EVENT_ID + "=? AND " + FINISHED_SELECTION + " AND " + COLUMN_START_AT + " IS NOT NULL";
+    private static final String DELETE_STATEMENT = "" +
+            "DELETE FROM " + TABLE_NAME +
+            " WHERE " + COLUMN_EVENT_ID + "=?";
+    private static final String DELETE_UNCHANGED_STATEMENT = "" +
+            DELETE_STATEMENT + " AND " + COLUMN_ROW_VERSION + "=?";
+    /* retention, bounded by LIMIT so one run stays short */
+    private static final String TOMBSTONE_SELECTION = COLUMN_DELETED_AT + "<?";
+    private static final String ORPHAN_SELECTION = "" +
+            COLUMN_START_AT + "<? AND " +
+            COLUMN_END_AT + " IS NULL AND " + COLUMN_DELETED_AT + " IS NULL";
+    private static final String DELETE_TOMBSTONES_STATEMENT = "" +
+            "DELETE FROM " + TABLE_NAME + " WHERE rowid IN (" +
+            "SELECT rowid FROM " + TABLE_NAME +
+            " WHERE " + TOMBSTONE_SELECTION + " LIMIT ?)";
+    private static final String DELETE_ORPHANS_STATEMENT = "" +
+            "DELETE FROM " + TABLE_NAME + " WHERE rowid IN (" +
+            "SELECT rowid FROM " + TABLE_NAME +
+            " WHERE " + ORPHAN_SELECTION + " LIMIT ?)";
+
+    // batch writes: rows per transaction, 0 means the whole batch in one transaction
+    public static final int BATCH_IN_ONE_TRANSACTION = 0;
+
+    private static final String SELECTION_BY_EVENT_ID = COLUMN_EVENT_ID + "=?";
+    // rows after (start_at, event_id) in DESC order, the first term bounds the index range
+    private static final String SELECTION_BEFORE_KEY = "" +
+            COLUMN_START_AT + "<=? AND (" +
+            COLUMN_START_AT + "<? OR " + COLUMN_EVENT_ID + "<?)";
+    private static final String ORDER_BY_KEY_DESC = "" +
+            COLUMN_START_AT + " DESC," + COLUMN_EVENT_ID + " DESC";
+    private static final String FINISHED_BEFORE_KEY_SELECTION = "" +
+            FINISHED_SELECTION + " AND " + SELECTION_BEFORE_KEY;
+
     AlarmEventDatabaseHelper dbHelper;
 
-    // SQLiteDatabase
+    // SQLiteDatabase, shared by the whole process and kept open
     private SQLiteDatabase db;
 
     /**
@@ -69,44 +235,87 @@ public class AlarmEventDbAdapter {
      * @param context Context
      */
     public AlarmEventDbAdapter(Context context) {
-        this.dbHelper = new AlarmEventDatabaseHelper(context, null, DB_VERSION);
+        this(AlarmEventDatabaseHelper.getInstance(context, DbConstants.DB_VERSION));
+    }
+
+    AlarmEventDbAdapter(AlarmEventDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
     }
 
     /**
-     * require db if db is closed
+     * require db if db is not opened yet
+     * the helper caches the opened db, so this only hits disk once per process
      */
     private void requireDb() {
         if (db == null || !db.isOpen()) {
-            db = dbHelper.getReadableDatabase();
+            db = dbHelper.getWritableDatabase();
         }
     }
 
     /**
      * get data filter by selection order by orderBy
-     * @param selection String or null, ex. "event_id = '1234' AND end_at NOT NULL"
+     * @param selection String or null, ex. "event_id = ? AND end_at NOT NULL"
+     * @param selectionArgs String[] or null, bound to ? in selection
      * @param orderBy String or null, ex. "start_at DESC"
+     * @param limit String or null, ex. "50"
      * @return list of AlarmEvent
      */
-    public List<AlarmEvent> filterBy(String selection, String orderBy) {
+    private List<AlarmEvent> filterBy(String selection, String[] selectionArgs, String orderBy,
+                                      String limit) {
         requireDb();
+        AlarmEventCursor cursor = new AlarmEventCursor(db.query(
+                TABLE_NAME,
+                COLUMNS,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                orderBy,
+                limit));
+        return readAll(cursor);
+    }
+
+    /**
+     * get data matching criteria, only its columns are read
+     * @param criteria AlarmEventCriteria
+     * @return alarmEventList list of AlarmEvent
+     */
+    public List<AlarmEvent> find(AlarmEventCriteria criteria) {
+        return readAll(query(criteria));
+    }
+
+    /**
+     * query data matching criteria as a lazy cursor, columns are decoded when read
+     * @param criteria AlarmEventCriteria
+     * @return AlarmEventCursor, close it after use
+     */
+    public AlarmEventCursor query(AlarmEventCriteria criteria) {
+        requireDb();
+        return new AlarmEventCursor(db.query(
+                TABLE_NAME,
+                criteria.getProjection(),
+                criteria.getSelection(),
+                criteria.getSelectionArgs(),
+                null,
+                null,
+                criteria.getOrderBy(),
+                criteria.getLimit()));
+    }
+
+    /**
+     * copy all rows of a cursor into AlarmEvent objects and close it
+     * @param cursor AlarmEventCursor
+     * @return alarmEventList list of AlarmEvent
+     */
+    private static List<AlarmEvent> readAll(AlarmEventCursor cursor) {
+        List<AlarmEvent> alarmEventList = new ArrayList<>();
         try {
-            List<AlarmEvent> alarmEventList = new ArrayList<>();
-            Cursor cursor = db.query(
-                    TABLE_NAME,
-                    COLUMNS,
-                    selection,
-                    null,
-                    null,
-                    null,
-                    orderBy);
             while (cursor.moveToNext()) {
-                AlarmEvent alarmEvent = createAlarmEvent(cursor);
-                alarmEventList.add(alarmEvent);
+                alarmEventList.add(cursor.toAlarmEvent());
             }
-            cursor.close();
             return alarmEventList;
         } finally {
-            db.close();
+            cursor.close();
         }
     }
 
@@ -115,7 +324,144 @@ public class AlarmEventDbAdapter {
      * @return alarmEventList list of AlarmEvent
      */
     public List<AlarmEvent> findAll() {
-        return filterBy(null, COLUMN_START_AT + " DESC");
+        return find(new AlarmEventCriteria());
+    }
+
+    /**
+     * get finished and not deleted data order by start_at, served by the partial index
+     * @return alarmEventList list of AlarmEvent
+     */
+    public List<AlarmEvent> findFinished() {
+        return find(new AlarmEventCriteria().finished().notDeleted());
+    }
+
+    /**
+     * load finished, not deleted events of db and archive into an AlarmHistory, in one pass
+     * both are read in (start_at, event_id) order and merged, a row in both is taken once
+     * @param archive AlarmEventArchive or null for db rows only
+     * @return AlarmHistory
+     */
+    public AlarmHistory loadHistory(AlarmEventArchive archive) {
+        Iterator<AlarmEvent> archived = archive != null
+                ? archive.iterateAll() : Collections.<AlarmEvent>emptyList().iterator();
+        AlarmEventCursor cursor = query(new AlarmEventCriteria()
+                .finished()
+                .notDeleted()
+                .oldestFirst()
+                .columns(COLUMN_USER_ID, COLUMN_START_AT, COLUMN_END_AT, COLUMN_SNOOZE_TIMES));
+        try {
+            AlarmHistory.Builder builder = new AlarmHistory.Builder(
+                    cursor.getCount() + (archive != null ? archive.size() : 0));
+            AlarmEvent nextArchived = archived.hasNext() ? archived.next() : null;
+            while (cursor.moveToNext()) {
+                long startAt = cursor.getStartAtMillis();
+                String eventId = cursor.getEventId();
+                while (nextArchived != null) {
+                    int order = nextArchived.getStartAtMillis() != startAt
+                            ? (nextArchived.getStartAtMillis() < startAt ? -1 : 1)
+                            : nextArchived.getEventId().compareTo(eventId);
+                    if (order > 0) {
+                        break;
+                    }
+                    // an archived copy of this row is skipped, the row is added below
+                    if (order < 0) {
+                        addToHistory(builder, nextArchived);
+                    }
+                    nextArchived = archived.hasNext() ? archived.next() : null;
+                }
+                builder.add(startAt, cursor.getEndAtMillis(), cursor.getSnoozeTimes(), cursor.getUserId());
+            }
+            for (; nextArchived != null; nextArchived = archived.hasNext() ? archived.next() : null) {
+                addToHistory(builder, nextArchived);
+            }
+            return builder.build();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void addToHistory(AlarmHistory.Builder builder, AlarmEvent alarmEvent) {
+        builder.add(alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(),
+                alarmEvent.getSnoozeTimes(), alarmEvent.getUserId());
+    }
+
+    /**
+     * get one page of finished and not deleted data, newest first
+     * pages are keyed on (start_at, event_id), so each page costs the same
+     * however long the history is
+     * @param pageToken String token of AlarmEventPage, null for the first page
+     * @param pageSize int max events in the page, at least 1
+     * @return AlarmEventPage
+     * @throws IllegalArgumentException if pageSize is not positive
+     */
+    public AlarmEventPage findFinishedPage(String pageToken, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        String selection = FINISHED_SELECTION;
+        String[] selectionArgs = null;
+        if (pageToken != null) {
+            String startAt = Long.toString(AlarmEventPage.getTokenStartAt(pageToken));
+            String eventId = AlarmEventPage.getTokenEventId(pageToken);
+            selection = FINISHED_BEFORE_KEY_SELECTION;
+            selectionArgs = new String[] {startAt, startAt, eventId};
+        }
+        // read one more row to know if there is a next page
+        List<AlarmEvent> alarmEventList = filterBy(selection, selectionArgs, ORDER_BY_KEY_DESC,
+                Integer.toString(pageSize + 1));
+        String nextPageToken = null;
+        if (alarmEventList.size() > pageSize) {
+            alarmEventList.remove(pageSize);
+            nextPageToken = AlarmEventPage.createPageToken(alarmEventList.get(pageSize - 1));
+        }
+        return new AlarmEventPage(alarmEventList, nextPageToken);
+    }
+
+    /**
+     * get data started in [from, to) order by start_at, served by the start_at index
+     * @param from Calendar inclusive
+     * @param to Calendar exclusive
+     * @return alarmEventList list of AlarmEvent
+     */
+    public List<AlarmEvent> findBetween(Calendar from, Calendar to) {
+        return find(new AlarmEventCriteria().startedBetween(from, to));
+    }
+
+    /**
+     * hot reads as issued above and by purge, with sample args, checked by QueryPlanTest
+     * @return HotQuery list
+     */
+    static List<HotQuery> getHotQueries() {
+        String now = Long.toString(System.currentTimeMillis());
+        String[] keyArgs = {now, now, ""};
+        String pageLimit = Integer.toString(ConstantData.History.PAGE_SIZE + 1);
+        AlarmEventCriteria finished = new AlarmEventCriteria().finished().notDeleted();
+        AlarmEventCriteria between = new AlarmEventCriteria().startedBetween(
+                Calendar.getInstance(), Calendar.getInstance());
+        String[] rowId = {"rowid"};
+        String purgeLimit = Integer.toString(RetentionPolicy.DEFAULT.getMaxRowsPerRun());
+        List<HotQuery> hotQueries = new ArrayList<>();
+        // the first page walks the finished index in order until LIMIT
+        hotQueries.add(new HotQuery("history first page", TABLE_NAME, COLUMNS,
+                FINISHED_SELECTION, null, ORDER_BY_KEY_DESC, pageLimit).scanning(FINISHED_INDEX));
+        hotQueries.add(new HotQuery("history next page", TABLE_NAME, COLUMNS,
+                FINISHED_BEFORE_KEY_SELECTION, keyArgs, ORDER_BY_KEY_DESC, pageLimit));
+        hotQueries.add(new HotQuery("lookup by id", TABLE_NAME, COLUMNS,
+                SELECTION_BY_EVENT_ID, new String[] {""}, null, null));
+        // all finished events are wanted, the partial index holds only them
+        hotQueries.add(hotQuery("finished events", finished).scanning(FINISHED_INDEX));
+        hotQueries.add(hotQuery("events between", between));
+        hotQueries.add(new HotQuery("purge tombstones", TABLE_NAME, rowId,
+                TOMBSTONE_SELECTION, new String[] {now}, null, purgeLimit));
+        hotQueries.add(new HotQuery("purge orphans", TABLE_NAME, rowId,
+                ORPHAN_SELECTION, new String[] {now}, null, purgeLimit));
+        return hotQueries;
+    }
+
+    private static HotQuery hotQuery(String name, AlarmEventCriteria criteria) {
+        return new HotQuery(name, TABLE_NAME, criteria.getProjection(),
+                criteria.getSelection(), criteria.getSelectionArgs(), criteria.getOrderBy(),
+                criteria.getLimit());
     }
 
     /**
@@ -125,104 +471,425 @@ public class AlarmEventDbAdapter {
      */
     public AlarmEvent getByEventId(String eventId) {
         requireDb();
+        AlarmEventCursor cursor = new AlarmEventCursor(db.query(
+                TABLE_NAME,
+                COLUMNS,
+                SELECTION_BY_EVENT_ID,
+                new String[] {eventId},
+                null,
+                null,
+                null));
         try {
-            String selection = COLUMN_EVENT_ID + "='" + eventId + "'";
-            Cursor cursor = db.query(
-                    TABLE_NAME,
-                    COLUMNS,
-                    selection,
-                    null,
-                    null,
-                    null,
-                    null);
-            AlarmEvent alarmEvent;
             /* check if exist */
-            if (cursor.getCount() > 0) {
-                cursor.moveToNext();
-                alarmEvent = createAlarmEvent(cursor);
-            } else {
-                alarmEvent = null;
+            if (cursor.moveToNext()) {
+                return cursor.toAlarmEvent();
             }
-            cursor.close();
-            return alarmEvent;
+            return null;
         } finally {
-            db.close();
+            cursor.close();
         }
     }
 
     /**
-     * insert alarm event
+     * insert alarm event if the event id does not exist
+     * a finished event is added to alarm stats in the same transaction
      * @param alarmEvent AlarmEvent object
+     * @return inserted count, 0 if the event id exists
      */
-    public long insert(AlarmEvent alarmEvent) {
+    public int insertIfAbsent(AlarmEvent alarmEvent) {
         requireDb();
+        SocialClockLogger.log("Insert DB Record if absent: " + alarmEvent.getEventId());
+        AlarmEventDatabaseHelper.beginTransaction(db);
         try {
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_EVENT_ID, alarmEvent.getEventId());
-            values.put(COLUMN_USER_ID, alarmEvent.getUserId());
-            values.put(COLUMN_USER_NAME, alarmEvent.getUserName());
-            values.put(COLUMN_START_AT, DatetimeFormatter.calendarToString(alarmEvent.getStartAt()));
-            values.put(COLUMN_END_AT, DatetimeFormatter.calendarToString(alarmEvent.getEndAt()));
-            values.put(COLUMN_SNOOZE_TIMES, alarmEvent.getSnoozeTimes());
-            values.put(COLUMN_SYNC_AT, DatetimeFormatter.calendarToString(alarmEvent.getSyncAt()));
-            values.put(COLUMN_DELETED_AT, DatetimeFormatter.calendarToString(alarmEvent.getDeletedAt()));
-            SocialClockLogger.log("Insert DB Record: " + alarmEvent.getEventId());
-            return db.insert(TABLE_NAME, null, values);
+            StatementCache statementCache = dbHelper.getStatementCache();
+            SQLiteStatement statement = statementCache.get(INSERT_IGNORE_STATEMENT);
+            int inserted;
+            synchronized (statement) {
+                bindAlarmEvent(statement, alarmEvent);
+                inserted = statement.executeInsert() == -1 ? 0 : 1;
+            }
+            if (inserted > 0) {
+                addIfCounted(statementCache, alarmEvent);
+            }
+            db.setTransactionSuccessful();
+            return inserted;
         } finally {
-            db.close();
+            db.endTransaction();
         }
     }
 
     /**
-     * update alarm event
+     * update alarm event, and move it in alarm stats in the same transaction
      * @param alarmEvent AlarmEvent object
      */
     public int update(AlarmEvent alarmEvent) {
         requireDb();
+        SocialClockLogger.log("Update DB Record: " + alarmEvent.getEventId());
+        AlarmEventDatabaseHelper.beginTransaction(db);
+        try {
+            long[] counted = findCountedEvent(alarmEvent.getEventId());
+            StatementCache statementCache = dbHelper.getStatementCache();
+            SQLiteStatement statement = statementCache.get(UPDATE_STATEMENT);
+            int updated;
+            synchronized (statement) {
+                StatementCache.bindMillisOrNull(statement, 1, alarmEvent.getEndAtMillis());
+                statement.bindLong(2, alarmEvent.getSnoozeTimes());
+                StatementCache.bindMillisOrNull(statement, 3, alarmEvent.getSyncAtMillis());
+                StatementCache.bindMillisOrNull(statement, 4, alarmEvent.getDeletedAtMillis());
+                StatementCache.bindStringOrNull(statement, 5, alarmEvent.getEventId());
+                updated = statementCache.executeUpdateDelete(statement);
+            }
+            if (updated > 0) {
+                updateStats(statementCache, counted, findCountedEvent(alarmEvent.getEventId()));
+            }
+            db.setTransactionSuccessful();
+            return updated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * count up snooze times in one statement, if the event is not finished
+     * @param eventId AlarmEvent eventId
+     * @param times int snoozes to add
+     * @return affected row count, 0 if not exist or finished
+     */
+    public int snooze(String eventId, int times) {
+        requireDb();
+        SocialClockLogger.log("Snooze DB Record: " + eventId);
+        AlarmEventDatabaseHelper.beginTransaction(db);
+        try {
+            StatementCache statementCache = dbHelper.getStatementCache();
+            SQLiteStatement statement = statementCache.get(SNOOZE_STATEMENT);
+            int snoozed;
+            synchronized (statement) {
+                statement.bindLong(1, times);
+                StatementCache.bindStringOrNull(statement, 2, eventId);
+                snoozed = statementCache.executeUpdateDelete(statement);
+            }
+            db.setTransactionSuccessful();
+            return snoozed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * set end time in one statement, if the event is not finished
+     * and add the event to alarm stats in the same transaction
+     * @param eventId AlarmEvent eventId
+     * @param endAt long get up time in epoch millis
+     * @return affected row count, 0 if not exist or already finished
+     */
+    public int finish(String eventId, long endAt) {
+        requireDb();
+        SocialClockLogger.log("Finish DB Record: " + eventId);
+        AlarmEventDatabaseHelper.beginTransaction(db);
         try {
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_END_AT, DatetimeFormatter.calendarToString(alarmEvent.getEndAt()));
-            values.put(COLUMN_SNOOZE_TIMES, alarmEvent.getSnoozeTimes());
-            values.put(COLUMN_SYNC_AT, DatetimeFormatter.calendarToString(alarmEvent.getSyncAt()));
-            values.put(COLUMN_DELETED_AT, DatetimeFormatter.calendarToString(alarmEvent.getDeletedAt()));
-            String whereClause = COLUMN_EVENT_ID + "='" + alarmEvent.getEventId() + "'";
-            SocialClockLogger.log("Update DB Record: " + alarmEvent.getEventId());
-            return db.update(TABLE_NAME, values, whereClause, null);
+            StatementCache statementCache = dbHelper.getStatementCache();
+            SQLiteStatement statement = statementCache.get(FINISH_STATEMENT);
+            int finished;
+            synchronized (statement) {
+                statement.bindLong(1, endAt);
+                StatementCache.bindStringOrNull(statement, 2, eventId);
+                finished = statementCache.executeUpdateDelete(statement);
+            }
+            if (finished > 0) {
+                // a soft deleted event is finished but not counted
+                updateStats(statementCache, null, findCountedEvent(eventId));
+            }
+            db.setTransactionSuccessful();
+            return finished;
         } finally {
-            db.close();
+            db.endTransaction();
         }
     }
 
     /**
-     * delete record
+     * start, end and snooze times of an event counted in alarm stats
+     * @param eventId AlarmEvent eventId
+     * @return long[] {start_at, end_at, snooze_times}, null if not exist, not finished or deleted
+     */
+    private long[] findCountedEvent(String eventId) {
+        Cursor cursor = db.rawQuery(COUNTED_EVENT_QUERY, new String[] {eventId});
+        try {
+            if (cursor.moveToNext()) {
+                return new long[] {cursor.getLong(0), cursor.getLong(1), cursor.getInt(2)};
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * add an inserted event to alarm stats, if finished, started and not deleted
+     * call inside the inserting transaction
+     * @param statementCache StatementCache of the connection
+     * @param alarmEvent AlarmEvent as inserted
+     */
+    private static void addIfCounted(StatementCache statementCache, AlarmEvent alarmEvent) {
+        if (alarmEvent.isFinished() && alarmEvent.getStartAtMillis() != AlarmEvent.NO_TIME
+                && !alarmEvent.isDeleted()) {
+            AlarmStatsDbAdapter.addFinishedEvent(statementCache,
+                    alarmEvent.getStartAtMillis(),
+                    alarmEvent.getEndAtMillis(),
+                    alarmEvent.getSnoozeTimes());
+        }
+    }
+
+    /**
+     * move an event in alarm stats from its counted values before a write to those after
+     * call inside the writing transaction
+     * @param statementCache StatementCache of the connection
+     * @param before long[] from findCountedEvent before the write, or null
+     * @param after long[] from findCountedEvent after the write, or null
+     */
+    private static void updateStats(StatementCache statementCache, long[] before, long[] after) {
+        if (Arrays.equals(before, after)) {
+            return;
+        }
+        if (before != null) {
+            AlarmStatsDbAdapter.removeFinishedEvent(statementCache, before[0], before[1], (int) before[2]);
+        }
+        if (after != null) {
+            AlarmStatsDbAdapter.addFinishedEvent(statementCache, after[0], after[1], (int) after[2]);
+        }
+    }
+
+    /**
+     * delete record, and remove it from alarm stats in the same transaction
      * @param eventId AlarmEvent eventId
      */
     public int delete(String eventId) {
         requireDb();
+        SocialClockLogger.log("Delete DB Record: " + eventId);
+        AlarmEventDatabaseHelper.beginTransaction(db);
+        try {
+            long[] counted = findCountedEvent(eventId);
+            StatementCache statementCache = dbHelper.getStatementCache();
+            SQLiteStatement statement = statementCache.get(DELETE_STATEMENT);
+            int deleted;
+            synchronized (statement) {
+                StatementCache.bindStringOrNull(statement, 1, eventId);
+                deleted = statementCache.executeUpdateDelete(statement);
+            }
+            if (deleted > 0) {
+                updateStats(statementCache, counted, null);
+            }
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * purge deleted events whose deleted_at is older than the grace period
+     * and unfinished events whose alarm was cancelled long ago
+     * @param policy RetentionPolicy
+     * @param now long current epoch millis
+     * @return int[] {purged tombstones, purged orphans}
+     */
+    public int[] purge(RetentionPolicy policy, long now) {
+        requireDb();
+        int[] purged = new int[2];
+        AlarmEventDatabaseHelper.beginTransaction(db);
         try {
-            String whereClause = COLUMN_EVENT_ID + "='" + eventId + "'";
-            SocialClockLogger.log("Delete DB Record: " + eventId);
-            return db.delete(TABLE_NAME, whereClause, null);
+            StatementCache statementCache = dbHelper.getStatementCache();
+            SQLiteStatement deleteTombstones = statementCache.get(DELETE_TOMBSTONES_STATEMENT);
+            SQLiteStatement deleteOrphans = statementCache.get(DELETE_ORPHANS_STATEMENT);
+            synchronized (deleteTombstones) {
+                deleteTombstones.bindLong(1, now - policy.getTombstoneGracePeriod());
+                deleteTombstones.bindLong(2, policy.getMaxRowsPerRun());
+                purged[0] = statementCache.executeUpdateDelete(deleteTombstones);
+            }
+            synchronized (deleteOrphans) {
+                deleteOrphans.bindLong(1, now - policy.getOrphanAge());
+                deleteOrphans.bindLong(2, policy.getMaxRowsPerRun());
+                purged[1] = statementCache.executeUpdateDelete(deleteOrphans);
+            }
+            db.setTransactionSuccessful();
         } finally {
-            db.close();
+            db.endTransaction();
         }
+        SocialClockLogger.log("Purge DB Records: tombstones " + purged[0] + ", orphans " + purged[1]);
+        return purged;
     }
 
     /**
-     * create an AlarmEvent object by cursor
-     * @param cursor Cursor
-     * @return AlarmEvent object
+     * insert alarm events in one transaction, existing event ids are skipped
+     * inserted finished events are added to alarm stats in the same transaction
+     * @param alarmEvents Collection of AlarmEvent
+     * @return inserted count
+     */
+    public int insertAll(Collection<AlarmEvent> alarmEvents) {
+        return insertAll(alarmEvents, BATCH_IN_ONE_TRANSACTION);
+    }
+
+    /**
+     * insert alarm events, existing event ids are skipped
+     * @param alarmEvents Collection of AlarmEvent
+     * @param chunkSize int rows per transaction, BATCH_IN_ONE_TRANSACTION for one transaction
+     * @return inserted count
+     */
+    public int insertAll(Collection<AlarmEvent> alarmEvents, int chunkSize) {
+        SocialClockLogger.log("Insert DB Records: " + alarmEvents.size());
+        return writeAll(INSERT_IGNORE_STATEMENT, alarmEvents, chunkSize, new BatchWriter<AlarmEvent>() {
+            @Override
+            public int write(StatementCache statementCache, SQLiteStatement statement, AlarmEvent alarmEvent) {
+                bindAlarmEvent(statement, alarmEvent);
+                if (statement.executeInsert() == -1) {
+                    return 0;
+                }
+                addIfCounted(statementCache, alarmEvent);
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * insert or replace alarm events in one transaction
+     * each event is moved in alarm stats in the same transaction, one lookup before and after the write
+     * @param alarmEvents Collection of AlarmEvent
+     * @return written count
+     */
+    public int upsertAll(Collection<AlarmEvent> alarmEvents) {
+        return upsertAll(alarmEvents, BATCH_IN_ONE_TRANSACTION);
+    }
+
+    /**
+     * insert or replace alarm events
+     * @param alarmEvents Collection of AlarmEvent
+     * @param chunkSize int rows per transaction, BATCH_IN_ONE_TRANSACTION for one transaction
+     * @return written count
+     */
+    public int upsertAll(Collection<AlarmEvent> alarmEvents, int chunkSize) {
+        SocialClockLogger.log("Upsert DB Records: " + alarmEvents.size());
+        return writeAll(UPSERT_STATEMENT, alarmEvents, chunkSize, new BatchWriter<AlarmEvent>() {
+            @Override
+            public int write(StatementCache statementCache, SQLiteStatement statement, AlarmEvent alarmEvent) {
+                long[] counted = findCountedEvent(alarmEvent.getEventId());
+                bindAlarmEvent(statement, alarmEvent);
+                if (statement.executeInsert() == -1) {
+                    return 0;
+                }
+                updateStats(statementCache, counted, findCountedEvent(alarmEvent.getEventId()));
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * delete records in one transaction
+     * deleted events are removed from alarm stats in the same transaction
+     * @param eventIds Collection of AlarmEvent eventId
+     * @return deleted count
+     */
+    public int deleteAll(Collection<String> eventIds) {
+        return deleteAll(eventIds, BATCH_IN_ONE_TRANSACTION);
+    }
+
+    /**
+     * delete records
+     * @param eventIds Collection of AlarmEvent eventId
+     * @param chunkSize int rows per transaction, BATCH_IN_ONE_TRANSACTION for one transaction
+     * @return deleted count
+     */
+    public int deleteAll(Collection<String> eventIds, int chunkSize) {
+        SocialClockLogger.log("Delete DB Records: " + eventIds.size());
+        return writeAll(DELETE_STATEMENT, eventIds, chunkSize, new BatchWriter<String>() {
+            @Override
+            public int write(StatementCache statementCache, SQLiteStatement statement, String eventId) {
+                long[] counted = findCountedEvent(eventId);
+                StatementCache.bindStringOrNull(statement, 1, eventId);
+                int deleted = statementCache.executeUpdateDelete(statement);
+                if (deleted > 0) {
+                    updateStats(statementCache, counted, null);
+                }
+                return deleted;
+            }
+        });
+    }
+
+    /**
+     * delete rows moved to the archive in one transaction, only those unchanged since read
+     * alarm stats are not changed, AlarmStatsDbAdapter.rebuild() counts archived events
+     * @param alarmEvents Collection of AlarmEvent as read, with their row version
+     * @return AlarmEvent list not deleted, changed or deleted by another write since read
+     */
+    public List<AlarmEvent> deleteArchived(Collection<AlarmEvent> alarmEvents) {
+        SocialClockLogger.log("Delete archived DB Records: " + alarmEvents.size());
+        final List<AlarmEvent> skipped = new ArrayList<>();
+        writeAll(DELETE_UNCHANGED_STATEMENT, alarmEvents, BATCH_IN_ONE_TRANSACTION, new BatchWriter<AlarmEvent>() {
+            @Override
+            public int write(StatementCache statementCache, SQLiteStatement statement, AlarmEvent alarmEvent) {
+                StatementCache.bindStringOrNull(statement, 1, alarmEvent.getEventId());
+                statement.bindLong(2, alarmEvent.getRowVersion());
+                int deleted = statementCache.executeUpdateDelete(statement);
+                if (deleted == 0) {
+                    skipped.add(alarmEvent);
+                }
+                return deleted;
+            }
+        });
+        return skipped;
+    }
+
+    /**
+     * write one row with a bound statement
+     */
+    private interface BatchWriter<T> {
+        int write(StatementCache statementCache, SQLiteStatement statement, T item);
+    }
+
+    /**
+     * write items with one reused statement, committing every chunkSize rows
+     * @param sql String statement
+     * @param items Collection of rows
+     * @param chunkSize int rows per transaction, BATCH_IN_ONE_TRANSACTION for one transaction
+     * @param writer BatchWriter binds and executes one row
+     * @return affected count
+     */
+    private <T> int writeAll(String sql, Collection<T> items, int chunkSize, BatchWriter<T> writer) {
+        requireDb();
+        int affected = 0;
+        Iterator<T> iterator = items.iterator();
+        while (iterator.hasNext()) {
+            // lock order is always transaction first, then statement
+            AlarmEventDatabaseHelper.beginTransaction(db);
+            try {
+                StatementCache statementCache = dbHelper.getStatementCache();
+                SQLiteStatement statement = statementCache.get(sql);
+                synchronized (statement) {
+                    int written = 0;
+                    while (iterator.hasNext() && (chunkSize <= 0 || written < chunkSize)) {
+                        affected += writer.write(statementCache, statement, iterator.next());
+                        written++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * bind the inserted columns of INSERT_IGNORE_STATEMENT and UPSERT_STATEMENT
+     * @param statement SQLiteStatement
+     * @param alarmEvent AlarmEvent object
      */
-    private static AlarmEvent createAlarmEvent(Cursor cursor) {
-        return new AlarmEvent(
-                cursor.getString(0),
-                cursor.getString(1),
-                cursor.getString(2),
-                DatetimeFormatter.stringToCalendar(cursor.getString(3)),
-                DatetimeFormatter.stringToCalendar(cursor.getString(4)),
-                cursor.getInt(5),
-                DatetimeFormatter.stringToCalendar(cursor.getString(6)),
-                DatetimeFormatter.stringToCalendar(cursor.getString(7))
-        );
+    private static void bindAlarmEvent(SQLiteStatement statement, AlarmEvent alarmEvent) {
+        StatementCache.bindStringOrNull(statement, 1, alarmEvent.getEventId());
+        StatementCache.bindStringOrNull(statement, 2, alarmEvent.getUserId());
+        StatementCache.bindStringOrNull(statement, 3, alarmEvent.getUserName());
+        StatementCache.bindMillisOrNull(statement, 4, alarmEvent.getStartAtMillis());
+        StatementCache.bindMillisOrNull(statement, 5, alarmEvent.getEndAtMillis());
+        statement.bindLong(6, alarmEvent.getSnoozeTimes());
+        StatementCache.bindMillisOrNull(statement, 7, alarmEvent.getSyncAtMillis());
+        StatementCache.bindMillisOrNull(statement, 8, alarmEvent.getDeletedAtMillis());
     }
 }
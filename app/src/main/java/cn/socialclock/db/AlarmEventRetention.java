@@ -0,0 +1,100 @@
+package cn.socialclock.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ * Bounded compaction of alarm_event: purge old tombstones and orphaned
+ * unfinished events, then vacuum the freed pages.
+ * Meant to run on a background thread, each run does at most what the policy allows.
+ */
+public class AlarmEventRetention {
+
+    // tombstones by deleted time, so the tombstone purge reads only them
+    public static final String CREATE_TOMBSTONE_INDEX_QUERY = "" +
+            "CREATE INDEX IF NOT EXISTS alarm_event_deleted_at_idx ON alarm_event(" +
+            AlarmEventDbAdapter.COLUMN_DELETED_AT + ")" +
+            " WHERE " + AlarmEventDbAdapter.COLUMN_DELETED_AT + " IS NOT NULL";
+    // same index before SQLite 3.8, also holding the null rows
+    public static final String CREATE_TOMBSTONE_FALLBACK_INDEX_QUERY = "" +
+            "CREATE INDEX IF NOT EXISTS alarm_event_deleted_at_idx ON alarm_event(" +
+            AlarmEventDbAdapter.COLUMN_DELETED_AT + ")";
+
+    // version 9: deleted_at index of the tombstone purge, so a run does not scan the table
+    public static final DbMigration MIGRATION_V9 = new DbMigration(9) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            if (AlarmEventDatabaseHelper.isPartialIndexSupported()) {
+                db.execSQL("CREATE INDEX alarm_event_deleted_at_idx ON alarm_event(deleted_at)"
+                        + " WHERE deleted_at IS NOT NULL");
+            } else {
+                db.execSQL("CREATE INDEX alarm_event_deleted_at_idx ON alarm_event(deleted_at)");
+            }
+        }
+    };
+
+    private AlarmEventDbAdapter dbAdapter;
+    private AlarmEventDatabaseHelper dbHelper;
+
+    /**
+     * Constructor
+     * @param context Context
+     */
+    public AlarmEventRetention(Context context) {
+        this.dbAdapter = new AlarmEventDbAdapter(context);
+        this.dbHelper = AlarmEventDatabaseHelper.getInstance(context, DbConstants.DB_VERSION);
+    }
+
+    /**
+     * run one compaction
+     * @param policy RetentionPolicy
+     * @return Result counts of this run
+     */
+    public Result run(RetentionPolicy policy) {
+        int[] purged = dbAdapter.purge(policy, System.currentTimeMillis());
+        // db files older than incremental auto-vacuum are vacuumed in full once, here off the UI thread
+        dbHelper.requireIncrementalVacuum();
+        int reclaimedPages = dbHelper.incrementalVacuum(policy.getMaxPagesPerRun());
+        Result result = new Result(purged[0], purged[1], reclaimedPages);
+        SocialClockLogger.log("AlarmEventRetention: " + result);
+        return result;
+    }
+
+    /**
+     * Counts of one compaction run
+     */
+    public static class Result {
+
+        private final int purgedTombstones;
+        private final int purgedOrphans;
+        private final int reclaimedPages;
+
+        public Result(int purgedTombstones, int purgedOrphans, int reclaimedPages) {
+            this.purgedTombstones = purgedTombstones;
+            this.purgedOrphans = purgedOrphans;
+            this.reclaimedPages = reclaimedPages;
+        }
+
+        public int getPurgedTombstones() {
+            return purgedTombstones;
+        }
+
+        public int getPurgedOrphans() {
+            return purgedOrphans;
+        }
+
+        public int getReclaimedPages() {
+            return reclaimedPages;
+        }
+
+        @Override
+        public String toString() {
+            return "purged tombstones " + purgedTombstones
+                    + ", purged orphans " + purgedOrphans
+                    + ", reclaimed pages " + reclaimedPages;
+        }
+    }
+}
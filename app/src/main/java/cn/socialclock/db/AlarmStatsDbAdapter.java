@@ -0,0 +1,314 @@
+package cn.socialclock.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cn.socialclock.model.AlarmStats;
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ * Daily, weekly and monthly rollup of finished alarm events.
+ * Updated in the same transaction as an event is finished, changed or deleted,
+ * so reading stats costs O(periods) instead of O(events).
+ */
+public class AlarmStatsDbAdapter {
+
+    // table name
+    private static final String TABLE_NAME = "alarm_stats";
+
+    /* table columns */
+    private static final String COLUMN_PERIOD_TYPE = "period_type";
+    private static final String COLUMN_PERIOD_START = "period_start";
+    private static final String COLUMN_FINISHED_COUNT = "finished_count";
+    private static final String COLUMN_SNOOZE_TOTAL = "snooze_total";
+    private static final String COLUMN_LATE_TOTAL = "late_total";
+    private static final String[] COLUMNS = {
+            COLUMN_PERIOD_TYPE,
+            COLUMN_PERIOD_START,
+            COLUMN_FINISHED_COUNT,
+            COLUMN_SNOOZE_TOTAL,
+            COLUMN_LATE_TOTAL,
+    };
+
+    // alarm_stats table create sql
+    public static final String CREATE_TABLE_QUERY = "" +
+            "CREATE TABLE " + TABLE_NAME + "(" +
+            COLUMN_PERIOD_TYPE + " INTEGER NOT NULL," +
+            COLUMN_PERIOD_START + " INTEGER NOT NULL," +
+            COLUMN_FINISHED_COUNT + " INTEGER DEFAULT 0," +
+            COLUMN_SNOOZE_TOTAL + " INTEGER DEFAULT 0," +
+            COLUMN_LATE_TOTAL + " INTEGER DEFAULT 0," +
+            "PRIMARY KEY (" + COLUMN_PERIOD_TYPE + "," + COLUMN_PERIOD_START + ")" +
+            ")";
+
+    // alarm_stats table drop sql
+    public static final String DROP_TABLE_QUERY = "drop table if exists " + TABLE_NAME;
+
+    // version 6: alarm_stats table, filled from existing events
+    public static final DbMigration MIGRATION_V6 = new DbMigration(6,
+            "CREATE TABLE alarm_stats(" +
+                    "period_type INTEGER NOT NULL," +
+                    "period_start INTEGER NOT NULL," +
+                    "finished_count INTEGER DEFAULT 0," +
+                    "snooze_total INTEGER DEFAULT 0," +
+                    "late_total INTEGER DEFAULT 0," +
+                    "PRIMARY KEY (period_type,period_start)" +
+                    ")") {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            super.migrate(db);
+            // no archive before version 7, periods start at local midnight like AlarmStats.getPeriodStart
+            String fill = "INSERT INTO alarm_stats" +
+                    " (period_type,period_start,finished_count,snooze_total,late_total)" +
+                    " SELECT ?, CAST(strftime('%s', start_at / 1000, 'unixepoch', 'localtime', 'start of day', ?, ?," +
+                    " 'utc') AS INTEGER) * 1000 AS day_start," +
+                    " COUNT(*), IFNULL(SUM(snooze_times), 0), SUM(end_at - start_at)" +
+                    " FROM alarm_event" +
+                    " WHERE end_at IS NOT NULL AND deleted_at IS NULL AND start_at IS NOT NULL" +
+                    " GROUP BY day_start";
+            // week start day, 0 is Sunday in sqlite, 1 in Calendar
+            String weekStart = "weekday " + (Calendar.getInstance().getFirstDayOfWeek() - 1);
+            db.execSQL(fill, new Object[] {AlarmStats.PERIOD_DAY, "+0 days", "+0 days"});
+            db.execSQL(fill, new Object[] {AlarmStats.PERIOD_WEEK, "-6 days", weekStart});
+            db.execSQL(fill, new Object[] {AlarmStats.PERIOD_MONTH, "start of month", "+0 days"});
+        }
+    };
+
+    /* statements */
+    private static final String INSERT_PERIOD_STATEMENT = "" +
+            "INSERT OR IGNORE INTO " + TABLE_NAME + " (" +
+            COLUMN_PERIOD_TYPE + "," +
+            COLUMN_PERIOD_START +
+            ") VALUES (?,?)";
+    private static final String ADD_FINISHED_STATEMENT = "" +
+            "UPDATE " + TABLE_NAME + " SET " +
+            COLUMN_FINISHED_COUNT + "=" + COLUMN_FINISHED_COUNT + "+1," +
+            COLUMN_SNOOZE_TOTAL + "=" + COLUMN_SNOOZE_TOTAL + "+?," +
+            COLUMN_LATE_TOTAL + "=" + COLUMN_LATE_TOTAL + "+?" +
+            " WHERE " + COLUMN_PERIOD_TYPE + "=? AND " + COLUMN_PERIOD_START + "=?";
+    private static final String REMOVE_FINISHED_STATEMENT = "" +
+            "UPDATE " + TABLE_NAME + " SET " +
+            COLUMN_FINISHED_COUNT + "=" + COLUMN_FINISHED_COUNT + "-1," +
+            COLUMN_SNOOZE_TOTAL + "=" + COLUMN_SNOOZE_TOTAL + "-?," +
+            COLUMN_LATE_TOTAL + "=" + COLUMN_LATE_TOTAL + "-?" +
+            " WHERE " + COLUMN_PERIOD_TYPE + "=? AND " + COLUMN_PERIOD_START + "=?";
+    private static final String INSERT_STATEMENT = "" +
+            "INSERT INTO " + TABLE_NAME + " (" +
+            COLUMN_PERIOD_TYPE + "," +
+            COLUMN_PERIOD_START + "," +
+            COLUMN_FINISHED_COUNT + "," +
+            COLUMN_SNOOZE_TOTAL + "," +
+            COLUMN_LATE_TOTAL +
+            ") VALUES (?,?,?,?,?)";
+    private static final String SELECTION_PERIOD_BETWEEN = "" +
+            COLUMN_PERIOD_TYPE + "=? AND " +
+            COLUMN_PERIOD_START + ">=? AND " + COLUMN_PERIOD_START + "<?";
+
+    // finished, not deleted events, same rows as history
+    private static final String REBUILD_SOURCE_QUERY = "" +
+            "SELECT start_at, end_at, snooze_times FROM alarm_event" +
+            " WHERE end_at IS NOT NULL AND deleted_at IS NULL AND start_at IS NOT NULL";
+
+    private Context context;
+    private AlarmEventDatabaseHelper dbHelper;
+
+    /**
+     * Constructor
+     * @param context Context
+     */
+    public AlarmStatsDbAdapter(Context context) {
+        this.context = context.getApplicationContext();
+        this.dbHelper = AlarmEventDatabaseHelper.getInstance(context, DbConstants.DB_VERSION);
+    }
+
+    /**
+     * hot reads with sample args, checked by QueryPlanTest
+     * @return HotQuery list
+     */
+    static List<HotQuery> getHotQueries() {
+        String now = Long.toString(System.currentTimeMillis());
+        List<HotQuery> hotQueries = new ArrayList<>();
+        hotQueries.add(new HotQuery("stats between", TABLE_NAME, COLUMNS,
+                SELECTION_PERIOD_BETWEEN, new String[] {"0", now, now}, COLUMN_PERIOD_START, null));
+        return hotQueries;
+    }
+
+    /**
+     * get stats of periods starting in [from, to), order by period start
+     * @param periodType int AlarmStats.PERIOD_DAY, PERIOD_WEEK or PERIOD_MONTH
+     * @param from Calendar inclusive
+     * @param to Calendar exclusive
+     * @return list of AlarmStats
+     */
+    public List<AlarmStats> findBetween(int periodType, Calendar from, Calendar to) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] selectionArgs = {
+                Integer.toString(periodType),
+                Long.toString(from.getTimeInMillis()),
+                Long.toString(to.getTimeInMillis())
+        };
+        List<AlarmStats> alarmStatsList = new ArrayList<>();
+        Cursor cursor = db.query(
+                TABLE_NAME,
+                COLUMNS,
+                SELECTION_PERIOD_BETWEEN,
+                selectionArgs,
+                null,
+                null,
+                COLUMN_PERIOD_START);
+        try {
+            while (cursor.moveToNext()) {
+                alarmStatsList.add(new AlarmStats(
+                        cursor.getInt(0),
+                        cursor.getLong(1),
+                        cursor.getInt(2),
+                        cursor.getInt(3),
+                        cursor.getLong(4)));
+            }
+            return alarmStatsList;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * add a finished event to its day, week and month
+     * call inside the transaction which finishes the event
+     * @param statementCache StatementCache of the connection
+     * @param startAt long alarm time in epoch millis
+     * @param endAt long get up time in epoch millis
+     * @param snoozeTimes int snooze times
+     */
+    static void addFinishedEvent(StatementCache statementCache, long startAt, long endAt, int snoozeTimes) {
+        SQLiteStatement insertPeriod = statementCache.get(INSERT_PERIOD_STATEMENT);
+        SQLiteStatement addFinished = statementCache.get(ADD_FINISHED_STATEMENT);
+        for (int periodType : AlarmStats.PERIOD_TYPES) {
+            long periodStart = AlarmStats.getPeriodStart(periodType, startAt);
+            synchronized (insertPeriod) {
+                insertPeriod.bindLong(1, periodType);
+                insertPeriod.bindLong(2, periodStart);
+                insertPeriod.executeInsert();
+            }
+            synchronized (addFinished) {
+                addFinished.bindLong(1, snoozeTimes);
+                addFinished.bindLong(2, endAt - startAt);
+                addFinished.bindLong(3, periodType);
+                addFinished.bindLong(4, periodStart);
+                statementCache.executeUpdateDelete(addFinished);
+            }
+        }
+    }
+
+    /**
+     * remove a finished event from its day, week and month, ex. when it is deleted
+     * call inside the transaction which changes the event
+     * @param statementCache StatementCache of the connection
+     * @param startAt long alarm time in epoch millis
+     * @param endAt long get up time in epoch millis
+     * @param snoozeTimes int snooze times
+     */
+    static void removeFinishedEvent(StatementCache statementCache, long startAt, long endAt, int snoozeTimes) {
+        SQLiteStatement removeFinished = statementCache.get(REMOVE_FINISHED_STATEMENT);
+        for (int periodType : AlarmStats.PERIOD_TYPES) {
+            synchronized (removeFinished) {
+                removeFinished.bindLong(1, snoozeTimes);
+                removeFinished.bindLong(2, endAt - startAt);
+                removeFinished.bindLong(3, periodType);
+                removeFinished.bindLong(4, AlarmStats.getPeriodStart(periodType, startAt));
+                statementCache.executeUpdateDelete(removeFinished);
+            }
+        }
+    }
+
+    /**
+     * add a finished event to the totals of its day, week and month
+     */
+    private static void addToPeriods(List<Map<Long, long[]>> periods, long startAt, long endAt,
+                                     int snoozeTimes) {
+        for (int periodType : AlarmStats.PERIOD_TYPES) {
+            long periodStart = AlarmStats.getPeriodStart(periodType, startAt);
+            long[] totals = periods.get(periodType).get(periodStart);
+            if (totals == null) {
+                totals = new long[3];
+                periods.get(periodType).put(periodStart, totals);
+            }
+            totals[0]++;
+            totals[1] += snoozeTimes;
+            totals[2] += endAt - startAt;
+        }
+    }
+
+    /**
+     * repopulate all stats from alarm events and archived events, in one transaction
+     */
+    public void rebuild() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        AlarmEventDatabaseHelper.beginTransaction(db);
+        try {
+            // the archive is mapped only for a rebuild
+            rebuild(db, AlarmEventArchive.getInstance(context));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * repopulate all stats from alarm events, in one pass over finished events and the archive
+     * @param db SQLiteDatabase in a transaction
+     * @param archive AlarmEventArchive or null
+     */
+    static void rebuild(SQLiteDatabase db, AlarmEventArchive archive) {
+        // {finished count, snooze total, late total} by period start, for each period type
+        final List<Map<Long, long[]>> periods = new ArrayList<>();
+        for (int periodType = 0; periodType < AlarmStats.PERIOD_TYPES.length; periodType++) {
+            periods.add(new TreeMap<Long, long[]>());
+        }
+        int eventCount = 0;
+        Cursor cursor = db.rawQuery(REBUILD_SOURCE_QUERY, null);
+        try {
+            while (cursor.moveToNext()) {
+                addToPeriods(periods, cursor.getLong(0), cursor.getLong(1), cursor.getInt(2));
+                eventCount++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (archive != null) {
+            archive.visitFinished(new AlarmEventArchive.FinishedEventVisitor() {
+                @Override
+                public void visit(long startAt, long endAt, int snoozeTimes) {
+                    addToPeriods(periods, startAt, endAt, snoozeTimes);
+                }
+            });
+            eventCount += archive.size();
+        }
+
+        db.delete(TABLE_NAME, null, null);
+        SQLiteStatement insert = db.compileStatement(INSERT_STATEMENT);
+        try {
+            for (int periodType : AlarmStats.PERIOD_TYPES) {
+                for (Map.Entry<Long, long[]> period : periods.get(periodType).entrySet()) {
+                    insert.bindLong(1, periodType);
+                    insert.bindLong(2, period.getKey());
+                    insert.bindLong(3, period.getValue()[0]);
+                    insert.bindLong(4, period.getValue()[1]);
+                    insert.bindLong(5, period.getValue()[2]);
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+        SocialClockLogger.log("Rebuild alarm stats from " + eventCount + " events");
+    }
+}
@@ -6,12 +6,41 @@ package cn.socialclock.db;
  * Constants about db
  */
 public final class DbConstants {
+    /** current db version */
+    public static final int DB_VERSION = 10;
+
     /** collects create table queries */
     public static final String[] CREATE_TABLE_QUERIES = {
             AlarmEventDbAdapter.CREATE_TABLE_QUERY,
+            AlarmStatsDbAdapter.CREATE_TABLE_QUERY,
+    };
+    /** collects create index queries */
+    public static final String[] CREATE_INDEX_QUERIES = {
+            AlarmEventDbAdapter.CREATE_START_AT_INDEX_QUERY,
+    };
+    /** collects create partial index queries, need SQLite 3.8 */
+    public static final String[] CREATE_PARTIAL_INDEX_QUERIES = {
+            AlarmEventDbAdapter.CREATE_FINISHED_INDEX_QUERY,
+            AlarmEventRetention.CREATE_TOMBSTONE_INDEX_QUERY,
+    };
+    /** collects indexes created instead of partial ones before SQLite 3.8 */
+    public static final String[] CREATE_PARTIAL_INDEX_FALLBACK_QUERIES = {
+            AlarmEventRetention.CREATE_TOMBSTONE_FALLBACK_INDEX_QUERY,
     };
     /** collects drop table queries */
     public static final String[] DROP_TABLE_QUERIES = {
-            AlarmEventDbAdapter.DROP_TABLE_QUERY
+            AlarmEventDbAdapter.DROP_TABLE_QUERY,
+            AlarmStatsDbAdapter.DROP_TABLE_QUERY,
+    };
+    /** collects migrations, in version order */
+    public static final DbMigration[] MIGRATIONS = {
+            AlarmEventDbAdapter.MIGRATION_V3,
+            AlarmEventDbAdapter.MIGRATION_V4,
+            AlarmEventDbAdapter.MIGRATION_V5,
+            AlarmStatsDbAdapter.MIGRATION_V6,
+            AlarmEventDbAdapter.MIGRATION_V7,
+            AlarmEventDbAdapter.MIGRATION_V8,
+            AlarmEventRetention.MIGRATION_V9,
+            AlarmEventDbAdapter.MIGRATION_V10,
     };
 }
@@ -0,0 +1,39 @@
+package cn.socialclock.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * @author mapler
+ * One schema step, upgrades the db from version - 1 to version.
+ * Queries are a frozen snapshot of that step and must not reference
+ * the current CREATE_TABLE_QUERY, which keeps changing.
+ */
+public class DbMigration {
+
+    private final int version;
+    private final String[] queries;
+
+    /**
+     * Constructor
+     * @param version int db version after this step
+     * @param queries String sqls executed in order
+     */
+    public DbMigration(int version, String... queries) {
+        this.version = version;
+        this.queries = queries;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * run this step, called inside the upgrade transaction
+     * @param db SQLiteDatabase
+     */
+    public void migrate(SQLiteDatabase db) {
+        for (String query : queries) {
+            db.execSQL(query);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cn.socialclock.db;
+
+import android.database.sqlite.SQLiteQueryBuilder;
+
+/**
+ * @author mapler
+ * A hot read as an adapter issues it, with sample args.
+ * Its query plan must SEARCH an index, or scan in order only the index it names,
+ * which is checked by QueryPlanTest.
+ */
+class HotQuery {
+
+    final String name;
+    final String sql;
+    final String[] args;
+    // index scanned in order and cut by LIMIT or by its partial WHERE, null if only SEARCH is allowed
+    String scannedIndex;
+
+    HotQuery(String name, String table, String[] columns, String selection, String[] args,
+             String orderBy, String limit) {
+        this.name = name;
+        this.sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                null, null, orderBy, limit);
+        this.args = args;
+    }
+
+    /**
+     * allow scanning one index in order, ex. the first page of a list
+     * @param index String index name
+     * @return this
+     */
+    HotQuery scanning(String index) {
+        this.scannedIndex = index;
+        return this;
+    }
+}
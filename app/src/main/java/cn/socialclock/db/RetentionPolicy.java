@@ -0,0 +1,49 @@
+package cn.socialclock.db;
+
+/**
+ * @author mapler
+ * How long deleted and unfinished alarm events are kept, and how much one compaction run may do
+ */
+public class RetentionPolicy {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** keep tombstones 30 days, unfinished events 2 days, 500 rows and 256 pages per run */
+    public static final RetentionPolicy DEFAULT = new RetentionPolicy(
+            30 * DAY_IN_MILLIS, 2 * DAY_IN_MILLIS, 500, 256);
+
+    private final long tombstoneGracePeriod;
+    private final long orphanAge;
+    private final int maxRowsPerRun;
+    private final int maxPagesPerRun;
+
+    /**
+     * constructor
+     * @param tombstoneGracePeriod long millis a deleted event is kept after deleted_at
+     * @param orphanAge long millis an unfinished event is kept after start_at, its alarm was cancelled
+     * @param maxRowsPerRun int max rows purged of each kind in one run
+     * @param maxPagesPerRun int max free pages vacuumed in one run
+     */
+    public RetentionPolicy(long tombstoneGracePeriod, long orphanAge, int maxRowsPerRun, int maxPagesPerRun) {
+        this.tombstoneGracePeriod = tombstoneGracePeriod;
+        this.orphanAge = orphanAge;
+        this.maxRowsPerRun = maxRowsPerRun;
+        this.maxPagesPerRun = maxPagesPerRun;
+    }
+
+    public long getTombstoneGracePeriod() {
+        return tombstoneGracePeriod;
+    }
+
+    public long getOrphanAge() {
+        return orphanAge;
+    }
+
+    public int getMaxRowsPerRun() {
+        return maxRowsPerRun;
+    }
+
+    public int getMaxPagesPerRun() {
+        return maxPagesPerRun;
+    }
+}
@@ -0,0 +1,117 @@
+package cn.socialclock.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cn.socialclock.model.AlarmEvent;
+
+/**
+ * @author mapler
+ * Compiled statements of the shared connection.
+ * Each sql is compiled once and reused as long as the connection lives.
+ * Lock order is always transaction first, then statement: callers begin a transaction,
+ * then get the statement and synchronize on it while binding and executing it.
+ * A thread holding a statement then always holds the connection too,
+ * so it never waits for a connection held by a thread waiting for the statement.
+ */
+public class StatementCache {
+
+    private final SQLiteDatabase db;
+
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+    // used on devices without executeUpdateDelete
+    private SQLiteStatement changesStatement;
+
+    /**
+     * Constructor
+     * @param db SQLiteDatabase the long-lived connection
+     */
+    StatementCache(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    SQLiteDatabase getDatabase() {
+        return db;
+    }
+
+    /**
+     * get the compiled statement of sql, compile it on first use
+     * call inside a transaction, compiling needs the connection
+     * @param sql String with ? placeholders
+     * @return SQLiteStatement
+     */
+    public synchronized SQLiteStatement get(String sql) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * execute an UPDATE or DELETE statement, inside a transaction
+     * @param statement SQLiteStatement already bound
+     * @return affected row count
+     */
+    public int executeUpdateDelete(SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return statement.executeUpdateDelete();
+        }
+        // changes() is per connection, keep execute and changes() together
+        synchronized (this) {
+            statement.execute();
+            if (changesStatement == null) {
+                changesStatement = db.compileStatement("SELECT changes()");
+            }
+            return (int) changesStatement.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * bind a String or null
+     * @param statement SQLiteStatement
+     * @param index int 1-based index
+     * @param value String or null
+     */
+    public static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * bind epoch millis, or null if AlarmEvent.NO_TIME
+     * @param statement SQLiteStatement
+     * @param index int 1-based index
+     * @param millis long epoch millis or AlarmEvent.NO_TIME
+     */
+    public static void bindMillisOrNull(SQLiteStatement statement, int index, long millis) {
+        if (millis == AlarmEvent.NO_TIME) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, millis);
+        }
+    }
+
+    /**
+     * release all compiled statements
+     */
+    synchronized void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        if (changesStatement != null) {
+            changesStatement.close();
+            changesStatement = null;
+        }
+    }
+}
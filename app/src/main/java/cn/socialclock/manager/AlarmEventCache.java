@@ -0,0 +1,80 @@
+package cn.socialclock.manager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cn.socialclock.model.AlarmEvent;
+
+/**
+ * @author mapler
+ * Bounded LRU cache of alarm events by event id, shared by receiver, UI and writer threads.
+ * Events are immutable, so cached ones are shared without copying, writers put a new object after each write.
+ */
+public class AlarmEventCache {
+
+    private final Map<String, AlarmEvent> alarmEvents;
+
+    // counts puts and removes, to drop fills read from db before a write
+    private long modCount;
+
+    /**
+     * Constructor
+     * @param capacity int max cached events, least recently used ones are evicted
+     */
+    public AlarmEventCache(final int capacity) {
+        this.alarmEvents = new LinkedHashMap<String, AlarmEvent>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AlarmEvent> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * get a cached event
+     * @param eventId String
+     * @return AlarmEvent or null if not cached
+     */
+    public synchronized AlarmEvent get(String eventId) {
+        return alarmEvents.get(eventId);
+    }
+
+    /**
+     * cache an event, replacing the old one
+     * @param alarmEvent AlarmEvent
+     */
+    public synchronized void put(AlarmEvent alarmEvent) {
+        modCount++;
+        alarmEvents.put(alarmEvent.getEventId(), alarmEvent);
+    }
+
+    /**
+     * cache an event read from db, unless the cache was written since the read started
+     * @param alarmEvent AlarmEvent
+     * @param readModCount long getModCount() before the db read
+     */
+    public synchronized void putIfNotModified(AlarmEvent alarmEvent, long readModCount) {
+        if (modCount == readModCount) {
+            put(alarmEvent);
+        }
+    }
+
+    /**
+     * invalidate an event
+     * @param eventId String
+     */
+    public synchronized void remove(String eventId) {
+        modCount++;
+        alarmEvents.remove(eventId);
+    }
+
+    /** invalidate all events */
+    public synchronized void clear() {
+        modCount++;
+        alarmEvents.clear();
+    }
+
+    public synchronized long getModCount() {
+        return modCount;
+    }
+}
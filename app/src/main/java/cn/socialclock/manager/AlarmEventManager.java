@@ -1,13 +1,31 @@
 package cn.socialclock.manager;
 
+import android.content.ContentResolver;
 import android.content.Context;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import cn.socialclock.db.AlarmEventArchive;
+import cn.socialclock.db.AlarmEventBackup;
 import cn.socialclock.db.AlarmEventDbAdapter;
+import cn.socialclock.db.AlarmEventRetention;
+import cn.socialclock.db.AlarmStatsDbAdapter;
+import cn.socialclock.db.RetentionPolicy;
 import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.model.AlarmEventPage;
+import cn.socialclock.model.AlarmHistory;
+import cn.socialclock.model.AlarmStats;
+import cn.socialclock.provider.AlarmEventContract;
+import cn.socialclock.utils.EventIdGenerator;
+import cn.socialclock.utils.SocialClockLogger;
 
 /**
  * @author mapler
@@ -15,39 +33,261 @@ import cn.socialclock.model.AlarmEvent;
  */
 public class AlarmEventManager {
 
+    // events cached in this process
+    private static final int CACHE_CAPACITY = 32;
+    private static final AlarmEventCache cache = new AlarmEventCache(CACHE_CAPACITY);
+
+    private Context context;
     private AlarmEventDbAdapter dbAdapter;
+    // built on first use, a manager of a receiver or an alarm screen mostly needs db and writer only
+    private AlarmStatsDbAdapter statsDbAdapter;
+    private AlarmEventRetention retention;
+    private AlarmEventArchive archive;
+    private AlarmEventBackup backup;
+    private AlarmEventWriter writer;
+    private ContentResolver contentResolver;
 
     /**
      * Constructor
      * @param context Context
      */
     protected AlarmEventManager(Context context) {
+        this.context = context.getApplicationContext();
         this.dbAdapter = new AlarmEventDbAdapter(context);
+        this.writer = AlarmEventWriter.getInstance(context, cache);
+        this.contentResolver = context.getContentResolver();
+    }
+
+    private synchronized AlarmStatsDbAdapter getStatsDbAdapter() {
+        if (statsDbAdapter == null) {
+            statsDbAdapter = new AlarmStatsDbAdapter(context);
+        }
+        return statsDbAdapter;
+    }
+
+    private synchronized AlarmEventRetention getRetention() {
+        if (retention == null) {
+            retention = new AlarmEventRetention(context);
+        }
+        return retention;
+    }
+
+    /**
+     * the archive file is mapped and checked on first use
+     */
+    private synchronized AlarmEventArchive getArchive() {
+        if (archive == null) {
+            archive = AlarmEventArchive.getInstance(context);
+        }
+        return archive;
+    }
+
+    private synchronized AlarmEventBackup getBackup() {
+        if (backup == null) {
+            backup = new AlarmEventBackup(context);
+        }
+        return backup;
     }
 
     /**
-     * Generate an UUID of alarm event
-     * @return uuid String
+     * Generate a time ordered id of alarm event
+     * events of older versions keep their UUID ids
+     * @return id String
      */
     private String genEventId() {
-        return UUID.randomUUID().toString();
+        return EventIdGenerator.next();
     }
 
     /**
-     * Get alarm event from db by alarm event id
+     * Get alarm event by alarm event id, from cache, db or archive
+     * waits for queued writes of this event first
+     * returned event is shared, do not modify it
      * @param alarmEventId String
      * @return AlarmEvent obj
      */
     protected AlarmEvent getAlarmEventById(String alarmEventId) {
-        return dbAdapter.getByEventId(alarmEventId);
+        writer.awaitPendingWrite(alarmEventId);
+        long readModCount = cache.getModCount();
+        AlarmEvent alarmEvent = cache.get(alarmEventId);
+        if (alarmEvent == null) {
+            alarmEvent = dbAdapter.getByEventId(alarmEventId);
+            if (alarmEvent == null) {
+                alarmEvent = getArchive().getByEventId(alarmEventId);
+            }
+            if (alarmEvent != null) {
+                cache.putIfNotModified(alarmEvent, readModCount);
+            }
+        }
+        return alarmEvent;
+    }
+
+    /**
+     * Get one page of finished alarm events from db, newest first
+     * @param pageToken String next page token of the previous page, null for the first page
+     * @param pageSize int max events in the page
+     * @return AlarmEventPage
+     */
+    protected AlarmEventPage getFinishedAlarmEventPage(String pageToken, int pageSize) {
+        AlarmEventPage hotPage = dbAdapter.findFinishedPage(pageToken, pageSize);
+        if (getArchive().size() == 0) {
+            return hotPage;
+        }
+        // both tiers page on the same key, the first pageSize of both merged is the page
+        AlarmEventPage coldPage = getArchive().findFinishedPage(pageToken, pageSize);
+        List<AlarmEvent> alarmEvents = mergeNewestFirst(hotPage.getAlarmEvents(), coldPage.getAlarmEvents());
+        boolean hasNextPage = hotPage.hasNextPage() || coldPage.hasNextPage() || alarmEvents.size() > pageSize;
+        if (alarmEvents.size() > pageSize) {
+            alarmEvents = new ArrayList<>(alarmEvents.subList(0, pageSize));
+        }
+        String nextPageToken = null;
+        if (hasNextPage && !alarmEvents.isEmpty()) {
+            nextPageToken = AlarmEventPage.createPageToken(alarmEvents.get(alarmEvents.size() - 1));
+        }
+        return new AlarmEventPage(alarmEvents, nextPageToken);
     }
 
     /**
-     * Get all alarm event from db
-     * @return AlarmEvent list
+     * Merge db and archive events, both newest first by (start_at, event_id)
+     * an event in both, left by an interrupted archive run, is taken once from db
+     * @param hotEvents AlarmEvent list from db
+     * @param coldEvents AlarmEvent list from archive
+     * @return AlarmEvent list newest first
      */
-    protected List<AlarmEvent> getAllAlarmEvents() {
-        return dbAdapter.findAll();
+    private static List<AlarmEvent> mergeNewestFirst(List<AlarmEvent> hotEvents, List<AlarmEvent> coldEvents) {
+        if (coldEvents.isEmpty()) {
+            return hotEvents;
+        }
+        List<AlarmEvent> merged = new ArrayList<>(hotEvents.size() + coldEvents.size());
+        int hot = 0;
+        int cold = 0;
+        while (hot < hotEvents.size() || cold < coldEvents.size()) {
+            if (cold == coldEvents.size()) {
+                merged.add(hotEvents.get(hot++));
+            } else if (hot == hotEvents.size()) {
+                merged.add(coldEvents.get(cold++));
+            } else {
+                int order = compareKey(hotEvents.get(hot), coldEvents.get(cold));
+                if (order == 0) {
+                    cold++;
+                } else if (order > 0) {
+                    merged.add(hotEvents.get(hot++));
+                } else {
+                    merged.add(coldEvents.get(cold++));
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static int compareKey(AlarmEvent a, AlarmEvent b) {
+        long aStartAt = a.getStartAtMillis();
+        long bStartAt = b.getStartAtMillis();
+        if (aStartAt != bStartAt) {
+            return aStartAt < bStartAt ? -1 : 1;
+        }
+        return a.getEventId().compareTo(b.getEventId());
+    }
+
+    /**
+     * Load all finished events of db and archive as columns, ex. for analysis
+     * @return AlarmHistory
+     */
+    protected AlarmHistory getAlarmHistory() {
+        return dbAdapter.loadHistory(getArchive());
+    }
+
+    /**
+     * Get wake up stats of periods starting in [from, to)
+     * @param periodType int AlarmStats.PERIOD_DAY, PERIOD_WEEK or PERIOD_MONTH
+     * @param from Calendar inclusive
+     * @param to Calendar exclusive
+     * @return AlarmStats list order by period start
+     */
+    protected List<AlarmStats> getAlarmStats(int periodType, Calendar from, Calendar to) {
+        return getStatsDbAdapter().findBetween(periodType, from, to);
+    }
+
+    /**
+     * Move finished events started before horizon from db into the archive, on the writer thread
+     * @param horizon Calendar
+     * @param minBatch int skip the run when fewer events are due
+     * @return Future of archived event count
+     */
+    protected Future<Integer> archiveAlarmEvents(final Calendar horizon, final int minBatch) {
+        FutureTask<Integer> future = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    return getArchive().archive(dbAdapter, horizon, minBatch);
+                } catch (IOException e) {
+                    SocialClockLogger.error("AlarmEventManager: archive fail. " + e.toString());
+                    return 0;
+                }
+            }
+        });
+        writer.runAfterPendingWrites(future);
+        return future;
+    }
+
+    /**
+     * Export all alarm events in the backup format, on the writer thread
+     * @param outputStream OutputStream, not closed
+     * @return Future of the exported event count, throws the IOException on get
+     */
+    protected Future<Integer> exportAlarmEvents(final OutputStream outputStream) {
+        FutureTask<Integer> future = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return getBackup().exportTo(outputStream);
+            }
+        });
+        writer.runAfterPendingWrites(future);
+        return future;
+    }
+
+    /**
+     * Import alarm events from the backup format, existing events are kept, on the writer thread
+     * @param inputStream InputStream, not closed
+     * @return Future of the imported event count, throws the IOException on get
+     */
+    protected Future<Integer> importAlarmEvents(final InputStream inputStream) {
+        FutureTask<Integer> future = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                try {
+                    return getBackup().importFrom(inputStream);
+                } finally {
+                    // a failed import may still have inserted some chunks
+                    cache.clear();
+                    contentResolver.notifyChange(AlarmEventContract.CONTENT_URI, null);
+                }
+            }
+        });
+        writer.runAfterPendingWrites(future);
+        return future;
+    }
+
+    /**
+     * Purge old deleted and orphaned unfinished events and vacuum, on the writer thread
+     * @param policy RetentionPolicy
+     * @return Future of the run result
+     */
+    protected Future<AlarmEventRetention.Result> compactAlarmEvents(final RetentionPolicy policy) {
+        FutureTask<AlarmEventRetention.Result> future = new FutureTask<>(
+                new Callable<AlarmEventRetention.Result>() {
+                    @Override
+                    public AlarmEventRetention.Result call() {
+                        AlarmEventRetention.Result result = getRetention().run(policy);
+                        if (result.getPurgedTombstones() + result.getPurgedOrphans() > 0) {
+                            // purged rows may be cached
+                            cache.clear();
+                            contentResolver.notifyChange(AlarmEventContract.CONTENT_URI, null);
+                        }
+                        return result;
+                    }
+                });
+        writer.runAfterPendingWrites(future);
+        return future;
     }
 
     /**
@@ -59,45 +299,50 @@ public class AlarmEventManager {
     }
 
     /**
-     * new an alarm event from db
+     * new an alarm event in db if not exist, written by the writer thread
      * @param alarmEventId String
      * @param userId String
-     * @param startAt Calendar
+     * @param startAt long epoch millis
+     * @return Future of written row count
      */
-    protected void startAlarmEvent(String alarmEventId, String userId, String userName, Calendar startAt) {
+    protected Future<Integer> startAlarmEvent(String alarmEventId, String userId, String userName, long startAt) {
         AlarmEvent alarmEvent = new AlarmEvent(alarmEventId, userId, userName, startAt);
-        dbAdapter.insert(alarmEvent);
+        return writer.insert(alarmEvent);
     }
 
     /**
-     * Update alarm event snooze count
+     * Update alarm event snooze count, written by the writer thread
      * @param alarmEventId String alarm event id
+     * @return Future of written row count
      */
-    protected void snoozeAlarmEvent(String alarmEventId) {
-        AlarmEvent alarmEvent = getAlarmEventById(alarmEventId);
-        // update alarm event snooze time count up
-        alarmEvent.snoozeTimeCountUp();
-        dbAdapter.update(alarmEvent);
+    protected Future<Integer> snoozeAlarmEvent(String alarmEventId) {
+        return writer.snooze(alarmEventId);
     }
 
     /**
-     * Delete an alarm with an alarm event id
+     * Delete an alarm with an alarm event id, written by the writer thread
      * @param alarmEventId String
+     * @return Future of deleted row count
      */
-    protected void deleteAlarmEvent(String alarmEventId) {
-        dbAdapter.delete(alarmEventId);
+    protected Future<Integer> deleteAlarmEvent(String alarmEventId) {
+        return writer.delete(alarmEventId);
     }
 
     /**
-     * finishAlarmEvent if event not finished
+     * finishAlarmEvent if event not finished, written by the writer thread
      * @param alarmEventId String
+     * @return Future of written row count
      */
-    protected void finishAlarmEvent(String alarmEventId) {
-        Calendar getUpTime = Calendar.getInstance();
-        AlarmEvent alarmEvent = getAlarmEventById(alarmEventId);
-        if (alarmEvent.getEndAt() == null) {
-            alarmEvent.setEndAt(getUpTime);
-            dbAdapter.update(alarmEvent);
-        }
+    protected Future<Integer> finishAlarmEvent(String alarmEventId) {
+        return writer.finish(alarmEventId, System.currentTimeMillis());
+    }
+
+    /**
+     * Run a task off the UI thread after all alarm event writes queued so far
+     * @param task Runnable
+     * @return Future done when the task is done
+     */
+    protected Future<?> runAfterPendingWrites(Runnable task) {
+        return writer.runAfterPendingWrites(task);
     }
 }
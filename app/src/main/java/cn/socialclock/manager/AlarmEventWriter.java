@@ -0,0 +1,334 @@
+package cn.socialclock.manager;
+
+import android.content.ContentResolver;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import cn.socialclock.db.AlarmEventDbAdapter;
+import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.provider.AlarmEventContract;
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ * Single writer of alarm events.
+ * All mutations run in order on one background thread, so the alarm UI never waits on disk.
+ * Mutations of an event id which are still waiting in queue are coalesced into one write.
+ */
+class AlarmEventWriter {
+
+    private static AlarmEventWriter instance;
+
+    private final AlarmEventDbAdapter dbAdapter;
+
+    // written through after every write
+    private final AlarmEventCache cache;
+
+    // changed events are notified to observers of AlarmEventContract uris
+    private final ContentResolver contentResolver;
+
+    private final ExecutorService executor;
+
+    private Thread writerThread;
+
+    // writes waiting in queue by event id, new mutations of the same id merge into them
+    private final Map<String, PendingWrite> pendingWrites = new HashMap<>();
+
+    // write being applied now
+    private PendingWrite runningWrite;
+
+    /**
+     * Get the process wide writer
+     * @param context Context
+     * @param cache AlarmEventCache written through by the writer
+     * @return AlarmEventWriter
+     */
+    static synchronized AlarmEventWriter getInstance(Context context, AlarmEventCache cache) {
+        if (instance == null) {
+            instance = new AlarmEventWriter(new AlarmEventDbAdapter(context), cache,
+                    context.getApplicationContext().getContentResolver());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     * @param dbAdapter AlarmEventDbAdapter
+     * @param cache AlarmEventCache
+     * @param contentResolver ContentResolver
+     */
+    private AlarmEventWriter(AlarmEventDbAdapter dbAdapter, AlarmEventCache cache,
+                             ContentResolver contentResolver) {
+        this.dbAdapter = dbAdapter;
+        this.cache = cache;
+        this.contentResolver = contentResolver;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AlarmEventWriter");
+                writerThread = thread;
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * insert an alarm event if the event id does not exist
+     * @param alarmEvent AlarmEvent
+     * @return Future of written row count
+     */
+    synchronized Future<Integer> insert(AlarmEvent alarmEvent) {
+        PendingWrite pendingWrite = requirePendingWrite(alarmEvent.getEventId());
+        if (pendingWrite.insertEvent == null) {
+            pendingWrite.insertEvent = alarmEvent;
+        }
+        return pendingWrite.newFuture();
+    }
+
+    /**
+     * count up snooze times if the event is not finished
+     * @param eventId String
+     * @return Future of written row count, 0 if the event does not exist or is finished
+     */
+    synchronized Future<Integer> snooze(String eventId) {
+        PendingWrite pendingWrite = requirePendingWrite(eventId);
+        // a snooze after get up does not count
+        if (pendingWrite.endAt != AlarmEvent.NO_TIME) {
+            return writtenFuture(0);
+        }
+        pendingWrite.snoozeCount++;
+        return pendingWrite.newFuture();
+    }
+
+    /**
+     * set end time if the event is not finished
+     * @param eventId String
+     * @param endAt long get up time in epoch millis
+     * @return Future of written row count
+     */
+    synchronized Future<Integer> finish(String eventId, long endAt) {
+        PendingWrite pendingWrite = requirePendingWrite(eventId);
+        if (pendingWrite.endAt == AlarmEvent.NO_TIME) {
+            pendingWrite.endAt = endAt;
+        }
+        return pendingWrite.newFuture();
+    }
+
+    /**
+     * delete an event, mutations queued before are dropped
+     * @param eventId String
+     * @return Future of deleted row count
+     */
+    synchronized Future<Integer> delete(String eventId) {
+        PendingWrite pendingWrite = requirePendingWrite(eventId);
+        pendingWrite.delete = true;
+        return pendingWrite.newFuture();
+    }
+
+    /**
+     * run a task on the writer thread after all writes queued so far
+     * @param task Runnable
+     * @return Future
+     */
+    Future<?> runAfterPendingWrites(Runnable task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * wait until queued writes of the event are done, for reading own writes
+     * does not wait on the writer thread itself
+     * @param eventId String
+     */
+    void awaitPendingWrite(String eventId) {
+        Future<Integer> future;
+        synchronized (this) {
+            if (Thread.currentThread() == writerThread) {
+                return;
+            }
+            PendingWrite pendingWrite = pendingWrites.get(eventId);
+            if (pendingWrite == null && runningWrite != null && runningWrite.eventId.equals(eventId)) {
+                pendingWrite = runningWrite;
+            }
+            if (pendingWrite == null) {
+                return;
+            }
+            future = pendingWrite.newFuture();
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // already reported by the writer
+        }
+    }
+
+    /**
+     * a future already done with a written row count
+     */
+    private static Future<Integer> writtenFuture(final int written) {
+        FutureTask<Integer> future = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return written;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * get the queued write of the event id, or queue a new one
+     * a queued delete is never merged with later mutations
+     */
+    private PendingWrite requirePendingWrite(String eventId) {
+        PendingWrite pendingWrite = pendingWrites.get(eventId);
+        if (pendingWrite == null || pendingWrite.delete) {
+            pendingWrite = new PendingWrite(eventId);
+            pendingWrites.put(eventId, pendingWrite);
+            executor.execute(pendingWrite);
+        }
+        return pendingWrite;
+    }
+
+    /**
+     * apply a write on the writer thread and write it through the cache
+     * @param pendingWrite PendingWrite
+     * @return written row count
+     */
+    private int apply(PendingWrite pendingWrite) {
+        String eventId = pendingWrite.eventId;
+        if (pendingWrite.delete) {
+            int deleted = dbAdapter.delete(eventId);
+            cache.remove(eventId);
+            return deleted;
+        }
+        if (pendingWrite.insertEvent != null) {
+            AlarmEvent alarmEvent = applyMutations(pendingWrite, pendingWrite.insertEvent);
+            if (dbAdapter.insertIfAbsent(alarmEvent) > 0) {
+                cache.put(alarmEvent);
+                return 1;
+            }
+        }
+        // event exists, update in db without reading it
+        int snoozed = 0;
+        int finished = 0;
+        if (pendingWrite.snoozeCount > 0) {
+            snoozed = dbAdapter.snooze(eventId, pendingWrite.snoozeCount);
+        }
+        if (pendingWrite.endAt != AlarmEvent.NO_TIME) {
+            finished = dbAdapter.finish(eventId, pendingWrite.endAt);
+        }
+        // write through if cached, same conditions as the statements
+        // this thread is the only writer, so the written counts tell if the cached event was current
+        AlarmEvent cachedEvent = cache.get(eventId);
+        if (cachedEvent != null) {
+            boolean cachedUnfinished = !cachedEvent.isFinished();
+            int expectedSnoozed = cachedUnfinished && pendingWrite.snoozeCount > 0 ? 1 : 0;
+            int expectedFinished = cachedUnfinished && pendingWrite.endAt != AlarmEvent.NO_TIME ? 1 : 0;
+            if (snoozed != expectedSnoozed || finished != expectedFinished) {
+                // cached event does not match db
+                cache.remove(eventId);
+            } else if (snoozed + finished > 0) {
+                // each statement counts the row version up by one
+                cache.put(applyMutations(pendingWrite, cachedEvent)
+                        .withRowVersion(cachedEvent.getRowVersion() + snoozed + finished));
+            }
+        }
+        return Math.max(snoozed, finished);
+    }
+
+    /**
+     * apply merged snooze and finish to an event
+     * @return AlarmEvent changed, or the same event if not changed
+     */
+    private static AlarmEvent applyMutations(PendingWrite pendingWrite, AlarmEvent alarmEvent) {
+        if (alarmEvent.isFinished()) {
+            return alarmEvent;
+        }
+        if (pendingWrite.snoozeCount > 0) {
+            alarmEvent = alarmEvent.withSnoozeTimes(alarmEvent.getSnoozeTimes() + pendingWrite.snoozeCount);
+        }
+        if (pendingWrite.endAt != AlarmEvent.NO_TIME) {
+            alarmEvent = alarmEvent.withEndAt(pendingWrite.endAt);
+        }
+        return alarmEvent;
+    }
+
+    /**
+     * Mutations of one event id merged into one write
+     */
+    private class PendingWrite implements Runnable {
+
+        private final String eventId;
+        private AlarmEvent insertEvent;
+        private int snoozeCount;
+        private long endAt = AlarmEvent.NO_TIME;
+        private boolean delete;
+
+        private int result;
+        private RuntimeException error;
+        private final List<FutureTask<Integer>> futures = new ArrayList<>();
+
+        private PendingWrite(String eventId) {
+            this.eventId = eventId;
+        }
+
+        /**
+         * a future done when this write is done, call with the writer locked
+         */
+        private Future<Integer> newFuture() {
+            FutureTask<Integer> future = new FutureTask<>(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (error != null) {
+                        throw error;
+                    }
+                    return result;
+                }
+            });
+            futures.add(future);
+            return future;
+        }
+
+        @Override
+        public void run() {
+            synchronized (AlarmEventWriter.this) {
+                // stop merging, later mutations queue a new write
+                if (pendingWrites.get(eventId) == this) {
+                    pendingWrites.remove(eventId);
+                }
+                runningWrite = this;
+            }
+            try {
+                result = apply(this);
+                if (result > 0) {
+                    contentResolver.notifyChange(AlarmEventContract.buildEventUri(eventId), null);
+                }
+            } catch (RuntimeException e) {
+                SocialClockLogger.error("AlarmEventWriter: write " + eventId + " fail. " + e.toString());
+                cache.remove(eventId);
+                error = e;
+            }
+            List<FutureTask<Integer>> doneFutures;
+            synchronized (AlarmEventWriter.this) {
+                runningWrite = null;
+                doneFutures = new ArrayList<>(futures);
+            }
+            for (FutureTask<Integer> future : doneFutures) {
+                future.run();
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.Intent;
 
 import cn.socialclock.receiver.AlarmReceiver;
+import cn.socialclock.receiver.MaintenanceReceiver;
 import cn.socialclock.utils.ConstantData;
 
 /**
@@ -43,6 +44,23 @@ public class AlarmServiceManager {
         alarmManager.set(AlarmManager.RTC_WAKEUP, alarmTimeStamp, pendingIntent);
     }
 
+    /**
+     * Set the daily maintenance alarm, if not set yet
+     * inexact and not waking the device, so the system runs it along with other work
+     */
+    protected void requireMaintenanceAlarm() {
+        Intent maintenanceIntent = new Intent(context, MaintenanceReceiver.class);
+        // already set, setting it again would push the first run back a day
+        if (PendingIntent.getBroadcast(context, 0, maintenanceIntent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent maintenancePendingIntent = PendingIntent.getBroadcast(context, 0, maintenanceIntent, 0);
+        alarmManager.setInexactRepeating(AlarmManager.RTC,
+                System.currentTimeMillis() + AlarmManager.INTERVAL_DAY,
+                AlarmManager.INTERVAL_DAY,
+                maintenancePendingIntent);
+    }
+
     /**
      * Cancel an alarm
      */
@@ -12,6 +12,7 @@ import cn.socialclock.R;
 import cn.socialclock.ui.AlarmNotificationTouchActivity;
 import cn.socialclock.ui.SnoozeNotificationTouchActivity;
 import cn.socialclock.utils.ConstantData;
+import cn.socialclock.utils.TimeText;
 
 /**
  * Created by mapler
@@ -65,8 +66,7 @@ public class NotificationServiceManager {
         notificationIntent.putExtra(ConstantData.BundleArgsName.ALARM_EVENT_ID, alarmEventId);
 
         String notificationText = "Snooze to "
-                + String.format("%02d", snoozeTime.get(Calendar.HOUR_OF_DAY)) + ":"
-                + String.format("%02d", snoozeTime.get(Calendar.MINUTE))
+                + TimeText.hourMinute(snoozeTime.get(Calendar.HOUR_OF_DAY), snoozeTime.get(Calendar.MINUTE))
                 + ", Touch to cancel";
         PendingIntent contentIntent = PendingIntent.getActivity(
                 context, ConstantData.AlarmType.ALARM_SNOOZE,
@@ -92,8 +92,7 @@ public class NotificationServiceManager {
         notificationIntent.putExtra(ConstantData.BundleArgsName.ALARM_EVENT_ID, alarmEventId);
 
         String notificationText = "Alarm at "
-                + String.format("%02d", alarmTime.get(Calendar.HOUR_OF_DAY)) + ":"
-                + String.format("%02d", alarmTime.get(Calendar.MINUTE));
+                + TimeText.hourMinute(alarmTime.get(Calendar.HOUR_OF_DAY), alarmTime.get(Calendar.MINUTE));
         PendingIntent contentIntent = PendingIntent.getActivity(
                 context, ConstantData.AlarmType.ALARM_NORMAL,
                 notificationIntent, PendingIntent.FLAG_UPDATE_CURRENT);
@@ -20,6 +20,7 @@ import java.util.Calendar;
 import cn.socialclock.model.AlarmEvent;
 import cn.socialclock.utils.DatetimeFormatter;
 import cn.socialclock.utils.SocialClockLogger;
+import cn.socialclock.utils.TimeText;
 import retrofit.http.GET;
 import retrofit.http.Query;
 
@@ -131,8 +132,10 @@ public class SnsManager {
      */
     protected String buildSnsMessage(AlarmEvent alarmEvent) {
 
-        long snoozePeriodInSeconds = (alarmEvent.getEndAt().getTimeInMillis() -
-                alarmEvent.getStartAt().getTimeInMillis()) / 1000;
+        long snoozePeriodInSeconds = (alarmEvent.getEndAtMillis() - alarmEvent.getStartAtMillis()) / 1000;
+        // converted once, the event getters make a new Calendar each call
+        Calendar startAt = alarmEvent.getStartAt();
+        Calendar endAt = alarmEvent.getEndAt();
 
         String snsMessage;
         if (snoozePeriodInSeconds > 60 || alarmEvent.getSnoozeTimes() > 0 ) {
@@ -141,26 +144,26 @@ public class SnsManager {
                     snoozePeriodInSeconds % 60 + " sec");
             snsMessage = "(test) "
                     + "Alarm at "
-                    + alarmEvent.getStartAt().get(Calendar.HOUR)
+                    + startAt.get(Calendar.HOUR)
                     + ":"
-                    + String.format("%02d", alarmEvent.getStartAt().get(Calendar.MINUTE))
+                    + TimeText.twoDigits(startAt.get(Calendar.MINUTE))
                     + ". Get up at "
-                    + alarmEvent.getEndAt().get(Calendar.HOUR)
+                    + endAt.get(Calendar.HOUR)
                     + ":"
-                    + String.format("%02d", alarmEvent.getEndAt().get(Calendar.MINUTE))
+                    + TimeText.twoDigits(endAt.get(Calendar.MINUTE))
                     + ". Snooze "
                     + alarmEvent.getSnoozeTimes() + (alarmEvent.getSnoozeTimes() > 1 ? " times. " : " time. ")
                     + "Late " + snoozePeriodMessage
-                    + " (" + DatetimeFormatter.calendarToString(alarmEvent.getEndAt())
+                    + " (" + DatetimeFormatter.calendarToString(endAt)
                     + ")";
         }
         else {
             snsMessage = "(test) "
                     + "Alarm and get up at "
-                    + alarmEvent.getStartAt().get(Calendar.HOUR)
+                    + startAt.get(Calendar.HOUR)
                     + ":"
-                    + String.format("%02d", alarmEvent.getStartAt().get(Calendar.MINUTE))
-                    + ". (" + DatetimeFormatter.calendarToString(alarmEvent.getEndAt())
+                    + TimeText.twoDigits(startAt.get(Calendar.MINUTE))
+                    + ". (" + DatetimeFormatter.calendarToString(endAt)
                     + ")";
         }
 
@@ -2,13 +2,25 @@ package cn.socialclock.manager;
 
 import android.content.Context;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import cn.socialclock.db.RetentionPolicy;
 import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.model.AlarmHistory;
+import cn.socialclock.model.AlarmEventPage;
+import cn.socialclock.model.AlarmStats;
 import cn.socialclock.model.ClockSettings;
 import cn.socialclock.utils.ConstantData;
 import cn.socialclock.utils.DatetimeFormatter;
@@ -33,7 +45,7 @@ public class SocialClockManager {
      */
     public SocialClockManager(Context context) {
         // init settings
-        this.clockSettings = new ClockSettings(context);
+        this.clockSettings = ClockSettings.getInstance(context);
         // init managers
         this.alarmEventManager = new AlarmEventManager(context);
         this.notificationServiceManager = new NotificationServiceManager(context);
@@ -48,12 +60,14 @@ public class SocialClockManager {
      * 2. init alarm event
      * 3. set alarm
      * 4. cancel if any snooze notification
+     * 5. set the daily maintenance alarm if not set
      * @return alarmEventId String
      */
     public String createAlarm() {
         // get settings
-        int hour = clockSettings.getHour();
-        int minute = clockSettings.getMinute();
+        ClockSettings.Snapshot settings = clockSettings.getSnapshot();
+        int hour = settings.getHour();
+        int minute = settings.getMinute();
 
         // make a time obj
         Calendar alarmAt = Calendar.getInstance();
@@ -80,6 +94,9 @@ public class SocialClockManager {
         // cancel notifications
         notificationServiceManager.cancelAllNotifications();
 
+        // old events are purged by maintenance, not on the alarm path
+        alarmServiceManager.requireMaintenanceAlarm();
+
         // write log
         SocialClockLogger.log("AlarmEventManager: createAlarm: "
                 + "clock is set at "
@@ -99,14 +116,12 @@ public class SocialClockManager {
         // cancel notifications
         notificationServiceManager.cancelAllNotifications();
 
-        AlarmEvent alarmEvent = alarmEventManager.getAlarmEventById(alarmEventId);
         Calendar startAt = Calendar.getInstance();
         // start an alarm event if not exist
-        if (alarmEvent == null){
-            String userId = clockSettings.getUserId();
-            String userName = clockSettings.getUserName();
-            alarmEventManager.startAlarmEvent(alarmEventId, userId, userName, startAt);
-        }
+        ClockSettings.Snapshot settings = clockSettings.getSnapshot();
+        String userId = settings.getUserId();
+        String userName = settings.getUserName();
+        alarmEventManager.startAlarmEvent(alarmEventId, userId, userName, startAt.getTimeInMillis());
         notificationServiceManager.createAlarmNotification(alarmEventId, startAt);
 
         // start playing ringtone
@@ -115,11 +130,11 @@ public class SocialClockManager {
 
     /**
      * Update(or create) a snooze alarm
-     * if alarm event is null or is finished, return
      * 1. count up alarm event snooze times
      * 2. set next snooze alarm with intent
      * 3. cancel if any snooze notification
      * 4. create new notification
+     * 5. if the snooze did not count, alarm event is not exist or is finished, create next alarm instead
      * @param alarmEventId String
      */
     public void snoozeAlarm(String alarmEventId) {
@@ -130,14 +145,8 @@ public class SocialClockManager {
         // stop ringtone
         AlarmRingtoneManager.stopRingtone();
 
-        // exit if alarm event is not exist or finished
-        AlarmEvent alarmEvent = alarmEventManager.getAlarmEventById(alarmEventId);
-        if (alarmEvent == null || alarmEvent.isFinished()) {
-            return;
-        }
-
-        // count up alarm event snooze
-        alarmEventManager.snoozeAlarmEvent(alarmEventId);
+        // count up alarm event snooze, not counted if not exist or finished
+        final Future<Integer> snoozed = alarmEventManager.snoozeAlarmEvent(alarmEventId);
 
         // get snooze timestamp
         int snoozeDuration = clockSettings.getSnoozeDuration();
@@ -157,6 +166,23 @@ public class SocialClockManager {
         // write log
         SocialClockLogger.log("AlarmEventManager: snooze to "
                 + DatetimeFormatter.calendarToString(snoozeTime));
+
+        // check the snooze after it is written, off the UI thread
+        alarmEventManager.runAfterPendingWrites(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (snoozed.get() == 0) {
+                        SocialClockLogger.log("AlarmEventManager: snooze not counted, create next alarm");
+                        createAlarm();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // the snooze alarm is kept, the writer reported the error
+                }
+            }
+        });
     }
 
     /**
@@ -194,39 +220,140 @@ public class SocialClockManager {
         createAlarm();
     }
 
+    /**
+     * Maintenance of alarm events, run by the daily maintenance alarm
+     * 1. move old history to the archive, once enough is due
+     * 2. purge old deleted and orphaned events and vacuum, bounded
+     * queued on the writer thread, returns at once
+     */
+    public void runMaintenance() {
+        Calendar archiveHorizon = Calendar.getInstance();
+        archiveHorizon.add(Calendar.DAY_OF_YEAR, -ConstantData.History.ARCHIVE_AFTER_DAYS);
+        alarmEventManager.archiveAlarmEvents(archiveHorizon, ConstantData.History.ARCHIVE_MIN_BATCH);
+        alarmEventManager.compactAlarmEvents(RetentionPolicy.DEFAULT);
+    }
+
     /** Sns
      * @param alarmEventId String
      */
-    public void sendSns(String alarmEventId) {
-        String snsMessage = snsManager.buildSnsMessage(alarmEventManager.getAlarmEventById(alarmEventId));
-        snsManager.tweet(snsMessage);
-        // write log
-        SocialClockLogger.log(snsMessage);
+    public void sendSns(final String alarmEventId) {
+        // after get up is written, off the UI thread
+        alarmEventManager.runAfterPendingWrites(new Runnable() {
+            @Override
+            public void run() {
+                String snsMessage = snsManager.buildSnsMessage(alarmEventManager.getAlarmEventById(alarmEventId));
+                snsManager.tweet(snsMessage);
+                // write log
+                SocialClockLogger.log(snsMessage);
+            }
+        });
+    }
+
+    /**
+     * Get an AlarmEvent by id, ex. after its AlarmEventContract uri was notified
+     * waits for queued writes of the event, so call it off the UI thread
+     * @param alarmEventId String
+     * @return AlarmEvent or null if not exist
+     */
+    public AlarmEvent getAlarmEvent(String alarmEventId) {
+        return alarmEventManager.getAlarmEventById(alarmEventId);
+    }
+
+    /**
+     * Get one page of finished AlarmEvent, newest first
+     * read pages one by one to keep memory constant however long the history is
+     * @param pageToken String next page token of the previous page, null for the first page
+     * @param pageSize int max events in the page
+     * @return AlarmEventPage
+     */
+    public AlarmEventPage getFinishedAlarmEventPage(String pageToken, int pageSize) {
+        return alarmEventManager.getFinishedAlarmEventPage(pageToken, pageSize);
     }
 
     /**
-     * Get finished AlarmEvent for SimpleAdapter
-     * @return parsedAlarmEvents List<Map<String, Object>>
+     * Get all finished alarm events as columns, to scan or summarize them without an object per event
+     * @return AlarmHistory
      */
-    public List<Map<String, Object>> getParsedFinishedAlarmEvents() {
-        List<AlarmEvent> allAlarmEvents = alarmEventManager.getAllAlarmEvents();
-        List<Map<String, Object>> parsedAlarmEvents = new ArrayList<>();
-
-        for (AlarmEvent alarmEvent : allAlarmEvents) {
-            // filter event is finished
-            if (!alarmEvent.isFinished()){
-                continue;
+    public AlarmHistory getAlarmHistory() {
+        return alarmEventManager.getAlarmHistory();
+    }
+
+    /**
+     * Get wake up stats of days, weeks or months starting in [from, to)
+     * @param periodType int AlarmStats.PERIOD_DAY, PERIOD_WEEK or PERIOD_MONTH
+     * @param from Calendar inclusive
+     * @param to Calendar exclusive
+     * @return AlarmStats list order by period start
+     */
+    public List<AlarmStats> getAlarmStats(int periodType, Calendar from, Calendar to) {
+        return alarmEventManager.getAlarmStats(periodType, from, to);
+    }
+
+    /**
+     * Export all alarm events of db and archive to a backup file
+     * waits for queued writes and the export, so call it off the UI thread
+     * @param file File, replaced if exists
+     * @return exported event count
+     * @throws IOException if the file can not be written
+     */
+    public int exportHistory(File file) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            return getBackupResult(alarmEventManager.exportAlarmEvents(outputStream));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Import alarm events from a backup file, events already in db are kept
+     * waits for queued writes and the import, so call it off the UI thread
+     * @param file File written by exportHistory
+     * @return imported event count
+     * @throws IOException if the file can not be read or is not a backup
+     */
+    public int importHistory(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return getBackupResult(alarmEventManager.importAlarmEvents(inputStream));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static int getBackupResult(Future<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("backup interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
-            Map<String, Object> map = new HashMap<>();
-            map.put(ConstantData.AdapterKey.ALARM_EVENT_USER_NAME_KEY, alarmEvent.getUserName());
-            map.put(ConstantData.AdapterKey.ALARM_EVENT_START_AT_KEY,
-                    DatetimeFormatter.calendarToString(alarmEvent.getStartAt()));
-            map.put(ConstantData.AdapterKey.ALARM_EVENT_END_AT_KEY,
-                    DatetimeFormatter.calendarToString(alarmEvent.getEndAt()));
-            map.put(ConstantData.AdapterKey.ALARM_EVENT_SNOOZE_TIMES_KEY,
-                    alarmEvent.getSnoozeTimes());
-            parsedAlarmEvents.add(map);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            // IOException(Throwable) needs API 9
+            throw new IOException(String.valueOf(cause));
         }
-        return parsedAlarmEvents;
+    }
+
+    /**
+     * Parse an AlarmEvent for SimpleAdapter
+     * @param alarmEvent AlarmEvent
+     * @return parsedAlarmEvent Map<String, Object>
+     */
+    public Map<String, Object> parseAlarmEvent(AlarmEvent alarmEvent) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(ConstantData.AdapterKey.ALARM_EVENT_ID_KEY, alarmEvent.getEventId());
+        map.put(ConstantData.AdapterKey.ALARM_EVENT_USER_NAME_KEY, alarmEvent.getUserName());
+        map.put(ConstantData.AdapterKey.ALARM_EVENT_START_AT_KEY,
+                DatetimeFormatter.millisToString(alarmEvent.getStartAtMillis()));
+        map.put(ConstantData.AdapterKey.ALARM_EVENT_END_AT_KEY, alarmEvent.isFinished()
+                ? DatetimeFormatter.millisToString(alarmEvent.getEndAtMillis()) : null);
+        map.put(ConstantData.AdapterKey.ALARM_EVENT_SNOOZE_TIMES_KEY,
+                alarmEvent.getSnoozeTimes());
+        return map;
     }
 }
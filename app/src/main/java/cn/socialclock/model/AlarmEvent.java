@@ -7,34 +7,70 @@ import cn.socialclock.utils.ConstantData;
 /**
  * @author mapler
  * Alarm Event
+ * Immutable, times are epoch millis, state changes return a new event by the with* methods.
  * */
-public class AlarmEvent {
-
-    private String eventId;
-    private String userId;
-    private String userName;
-    private Calendar startAt;
-    private Calendar endAt;
-    private int snoozeTimes;
-    private Calendar syncAt;
-    private Calendar deletedAt;
+public final class AlarmEvent {
+
+    /** millis of a time not set, ex. end time of an event not finished */
+    public static final long NO_TIME = 0;
+
+    private final String eventId;
+    private final String userId;
+    private final String userName;
+    private final long startAt;
+    private final long endAt;
+    private final int snoozeTimes;
+    private final long syncAt;
+    private final long deletedAt;
+    // version of the db row this was read at
+    private final long rowVersion;
 
     /**
      * constructor when create an alarm
      * @param eventId String alarm event id
      * @param userId String user id
      * @param userName String user name
-     * @param startAt Calendar alarmed time
+     * @param startAt long alarmed time in epoch millis
+     */
+    public AlarmEvent(String eventId, String userId, String userName, long startAt) {
+        this(eventId, userId, userName, startAt, NO_TIME, 0, NO_TIME, NO_TIME, 0);
+    }
+
+    /**
+     * constructor
+     * @param eventId String alarm event id (primary key)
+     * @param userId String user id
+     * @param userName String user name
+     * @param startAt long alarmed time
+     * @param endAt long get up time or NO_TIME
+     * @param snoozeTimes int snooze times
+     * @param syncAt long server sync time or NO_TIME
+     * @param deletedAt long deleted time or NO_TIME
+     * @param rowVersion long version of the db row, 0 if not read from db
      */
-    public AlarmEvent(String eventId, String userId, String userName, Calendar startAt) {
+    public AlarmEvent(String eventId,
+                      String userId,
+                      String userName,
+                      long startAt,
+                      long endAt,
+                      int snoozeTimes,
+                      long syncAt,
+                      long deletedAt,
+                      long rowVersion) {
+
         this.eventId = eventId;
         this.userId = userId;
         this.userName = userName;
         this.startAt = startAt;
+        this.endAt = endAt;
+        this.snoozeTimes = snoozeTimes;
+        this.syncAt = syncAt;
+        this.deletedAt = deletedAt;
+        this.rowVersion = rowVersion;
     }
 
     /**
-     * constructor
+     * constructor from Calendar times, for legacy callers
      * @param eventId String alarm event id (primary key)
      * @param userId String user id
      * @param userName String user name
@@ -52,15 +88,29 @@ public class AlarmEvent {
                       int snoozeTimes,
                       Calendar syncAt,
                       Calendar deletedAt) {
+        this(eventId, userId, userName, toMillis(startAt), toMillis(endAt), snoozeTimes,
+                toMillis(syncAt), toMillis(deletedAt), 0);
+    }
 
-        this.eventId = eventId;
-        this.userId = userId;
-        this.userName = userName;
-        this.startAt = startAt;
-        this.endAt = endAt;
-        this.snoozeTimes = snoozeTimes;
-        this.syncAt = syncAt;
-        this.deletedAt = deletedAt;
+    /**
+     * @param calendar Calendar or null
+     * @return epoch millis, NO_TIME if null
+     */
+    public static long toMillis(Calendar calendar) {
+        return calendar == null ? NO_TIME : calendar.getTimeInMillis();
+    }
+
+    /**
+     * @param millis epoch millis or NO_TIME
+     * @return new Calendar, null if NO_TIME
+     */
+    public static Calendar toCalendar(long millis) {
+        if (millis == NO_TIME) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
     }
 
     public String getEventId() {
@@ -83,62 +133,82 @@ public class AlarmEvent {
         return userName;
     }
 
-    public Calendar getStartAt() {
+    public long getStartAtMillis() {
         return startAt;
     }
 
-    public Calendar getEndAt() {
+    public long getEndAtMillis() {
         return endAt;
     }
 
+    public long getSyncAtMillis() {
+        return syncAt;
+    }
+
+    public long getDeletedAtMillis() {
+        return deletedAt;
+    }
+
+    /* Calendar views for legacy callers, a new Calendar on each call, null if not set */
+
+    public Calendar getStartAt() {
+        return toCalendar(startAt);
+    }
+
+    public Calendar getEndAt() {
+        return toCalendar(endAt);
+    }
+
+    public Calendar getSyncAt() {
+        return toCalendar(syncAt);
+    }
+
+    public Calendar getDeletedAt() {
+        return toCalendar(deletedAt);
+    }
+
     /**
      * check event is finished
      * @return boolean
      */
     public boolean isFinished() {
-        return getEndAt() != null;
+        return endAt != NO_TIME;
     }
 
-    public void setEndAt(Calendar endAt) {
-        this.endAt = endAt;
+    public boolean isDeleted() {
+        return deletedAt != NO_TIME;
     }
 
     public int getSnoozeTimes() {
         return snoozeTimes;
     }
 
-    public void setSnoozeTimes(int snoozeTimes) {
-        this.snoozeTimes = snoozeTimes;
+    public long getRowVersion() {
+        return rowVersion;
     }
 
-    /** count up snooze time */
-    public void snoozeTimeCountUp() {
-        this.snoozeTimes++;
+    public AlarmEvent withEndAt(long endAt) {
+        return new AlarmEvent(eventId, userId, userName, startAt, endAt, snoozeTimes, syncAt, deletedAt,
+                rowVersion);
     }
 
-    public Calendar getSyncAt() {
-        return syncAt;
+    public AlarmEvent withSnoozeTimes(int snoozeTimes) {
+        return new AlarmEvent(eventId, userId, userName, startAt, endAt, snoozeTimes, syncAt, deletedAt,
+                rowVersion);
     }
 
-    public void setSyncAt(Calendar syncAt) {
-        this.syncAt = syncAt;
-    }
-
-    public Calendar getDeletedAt() {
-        return deletedAt;
-    }
-
-    private void setDeletedAt(Calendar deletedAt) {
-        this.deletedAt = deletedAt;
+    public AlarmEvent withSyncAt(long syncAt) {
+        return new AlarmEvent(eventId, userId, userName, startAt, endAt, snoozeTimes, syncAt, deletedAt,
+                rowVersion);
     }
 
-    /** delete called by client */
-    public void delete() {
-        this.setDeletedAt(Calendar.getInstance());
+    public AlarmEvent withDeletedAt(long deletedAt) {
+        return new AlarmEvent(eventId, userId, userName, startAt, endAt, snoozeTimes, syncAt, deletedAt,
+                rowVersion);
     }
 
-    /** delete called when sync */
-    public void delete(Calendar deletedAt) {
-        this.setDeletedAt(deletedAt);
+    public AlarmEvent withRowVersion(long rowVersion) {
+        return new AlarmEvent(eventId, userId, userName, startAt, endAt, snoozeTimes, syncAt, deletedAt,
+                rowVersion);
     }
 }
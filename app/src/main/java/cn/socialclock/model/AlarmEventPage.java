@@ -0,0 +1,66 @@
+package cn.socialclock.model;
+
+import java.util.List;
+
+/**
+ * @author mapler
+ * One page of alarm events with the token of the next page
+ */
+public class AlarmEventPage {
+
+    private static final String PAGE_TOKEN_SEPARATOR = ":";
+
+    private final List<AlarmEvent> alarmEvents;
+    private final String nextPageToken;
+
+    /**
+     * constructor
+     * @param alarmEvents List of AlarmEvent in this page
+     * @param nextPageToken String token to read the next page, null if this is the last page
+     */
+    public AlarmEventPage(List<AlarmEvent> alarmEvents, String nextPageToken) {
+        this.alarmEvents = alarmEvents;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<AlarmEvent> getAlarmEvents() {
+        return alarmEvents;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    /**
+     * token of the page after an event, pages are keyed on (start_at, event_id) newest first
+     * @param alarmEvent AlarmEvent last event of a page
+     * @return token String
+     */
+    public static String createPageToken(AlarmEvent alarmEvent) {
+        return alarmEvent.getStartAtMillis() + PAGE_TOKEN_SEPARATOR + alarmEvent.getEventId();
+    }
+
+    /**
+     * @param pageToken String
+     * @return start_at epoch millis of the key
+     */
+    public static long getTokenStartAt(String pageToken) {
+        return Long.parseLong(pageToken.substring(0, pageToken.indexOf(PAGE_TOKEN_SEPARATOR)));
+    }
+
+    /**
+     * @param pageToken String
+     * @return event id of the key
+     */
+    public static String getTokenEventId(String pageToken) {
+        return pageToken.substring(pageToken.indexOf(PAGE_TOKEN_SEPARATOR) + 1);
+    }
+
+    /**
+     * check there are more pages
+     * @return boolean
+     */
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+}
@@ -0,0 +1,296 @@
+package cn.socialclock.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @author mapler
+ * Snapshot of finished alarm events for analysis, one array per column instead of one object per event.
+ * Events are ordered by start time, user ids are stored once and referenced by index.
+ */
+public final class AlarmHistory {
+
+    /** user ref of an event without user id */
+    public static final int NO_USER = -1;
+
+    // smaller ranges are summarized on the calling thread
+    private static final int MIN_PARALLEL_RANGE = 8192;
+
+    private final int size;
+    private final long[] startAt;
+    private final long[] endAt;
+    private final int[] snoozeTimes;
+    private final int[] userRefs;
+    private final String[] userIds;
+
+    private AlarmHistory(Builder builder) {
+        this.size = builder.size;
+        this.startAt = resize(builder.startAt, size);
+        this.endAt = resize(builder.endAt, size);
+        this.snoozeTimes = resize(builder.snoozeTimes, size);
+        this.userRefs = resize(builder.userRefs, size);
+        this.userIds = builder.userIds.toArray(new String[builder.userIds.size()]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getStartAt(int index) {
+        return startAt[index];
+    }
+
+    public long getEndAt(int index) {
+        return endAt[index];
+    }
+
+    public int getSnoozeTimes(int index) {
+        return snoozeTimes[index];
+    }
+
+    /** @return user ref of the event, NO_USER if none */
+    public int getUserRef(int index) {
+        return userRefs[index];
+    }
+
+    /** @return distinct user ids, indexed by user ref */
+    public String[] getUserIds() {
+        return userIds.clone();
+    }
+
+    /**
+     * @param userId String
+     * @return user ref, NO_USER if no event of the user
+     */
+    public int findUserRef(String userId) {
+        for (int ref = 0; ref < userIds.length; ref++) {
+            if (userIds[ref].equals(userId)) {
+                return ref;
+            }
+        }
+        return NO_USER;
+    }
+
+    /**
+     * first index of events started at or after a time
+     * @param millis long epoch millis
+     * @return index, size() if none
+     */
+    public int indexOf(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startAt[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * summarize events started in [from, to)
+     * @param from long epoch millis inclusive
+     * @param to long epoch millis exclusive
+     * @param userRef int only events of the user, NO_USER for all events
+     * @return Summary
+     */
+    public Summary summarize(long from, long to, int userRef) {
+        return summarize(indexOf(from), indexOf(to), userRef);
+    }
+
+    /**
+     * summarize events started in [from, to), ranges split across an executor
+     * @param from long epoch millis inclusive
+     * @param to long epoch millis exclusive
+     * @param userRef int only events of the user, NO_USER for all events
+     * @param executor ExecutorService
+     * @param parallelism int max ranges, ex. available processors
+     * @return Summary
+     * @throws ExecutionException if a range fails
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Summary summarize(long from, long to, final int userRef, ExecutorService executor, int parallelism)
+            throws ExecutionException, InterruptedException {
+        int fromIndex = indexOf(from);
+        int toIndex = indexOf(to);
+        parallelism = Math.max(parallelism, 1);
+        int rangeSize = Math.max(MIN_PARALLEL_RANGE, (toIndex - fromIndex + parallelism - 1) / parallelism);
+        if (toIndex - fromIndex <= rangeSize) {
+            return summarize(fromIndex, toIndex, userRef);
+        }
+        List<Future<Summary>> futures = new ArrayList<>();
+        int start = fromIndex + rangeSize;
+        for (; start < toIndex; start += rangeSize) {
+            final int rangeFrom = start;
+            final int rangeTo = Math.min(start + rangeSize, toIndex);
+            futures.add(executor.submit(new Callable<Summary>() {
+                @Override
+                public Summary call() {
+                    return summarize(rangeFrom, rangeTo, userRef);
+                }
+            }));
+        }
+        // first range on this thread
+        Summary summary = summarize(fromIndex, fromIndex + rangeSize, userRef);
+        for (Future<Summary> future : futures) {
+            summary.add(future.get());
+        }
+        return summary;
+    }
+
+    private Summary summarize(int fromIndex, int toIndex, int userRef) {
+        Summary summary = new Summary();
+        for (int i = fromIndex; i < toIndex; i++) {
+            if (userRef == NO_USER || userRefs[i] == userRef) {
+                long late = endAt[i] - startAt[i];
+                summary.finishedCount++;
+                summary.snoozeTotal += snoozeTimes[i];
+                summary.lateTotal += late;
+                summary.lateMax = Math.max(summary.lateMax, late);
+            }
+        }
+        return summary;
+    }
+
+    // Arrays.copyOf needs API 9
+    private static long[] resize(long[] array, int length) {
+        long[] resized = new long[length];
+        System.arraycopy(array, 0, resized, 0, Math.min(array.length, length));
+        return resized;
+    }
+
+    private static int[] resize(int[] array, int length) {
+        int[] resized = new int[length];
+        System.arraycopy(array, 0, resized, 0, Math.min(array.length, length));
+        return resized;
+    }
+
+    /**
+     * Totals of summarized events, same measures as AlarmStats
+     */
+    public static final class Summary {
+
+        private int finishedCount;
+        private int snoozeTotal;
+        private long lateTotal;
+        private long lateMax;
+
+        public int getFinishedCount() {
+            return finishedCount;
+        }
+
+        public int getSnoozeTotal() {
+            return snoozeTotal;
+        }
+
+        public long getLateTotal() {
+            return lateTotal;
+        }
+
+        /** @return longest millis from alarm to get up, 0 if no finished event */
+        public long getLateMax() {
+            return lateMax;
+        }
+
+        /** @return average millis from alarm to get up, 0 if no finished event */
+        public long getAverageLate() {
+            return finishedCount == 0 ? 0 : lateTotal / finishedCount;
+        }
+
+        /** @return average snooze times, 0 if no finished event */
+        public double getAverageSnoozeTimes() {
+            return finishedCount == 0 ? 0 : (double) snoozeTotal / finishedCount;
+        }
+
+        private void add(Summary other) {
+            finishedCount += other.finishedCount;
+            snoozeTotal += other.snoozeTotal;
+            lateTotal += other.lateTotal;
+            lateMax = Math.max(lateMax, other.lateMax);
+        }
+
+        @Override
+        public String toString() {
+            return "finished " + finishedCount + ", snoozes " + snoozeTotal
+                    + ", late total " + lateTotal + "ms, late max " + lateMax + "ms";
+        }
+    }
+
+    /**
+     * Appends finished events in start time order, in one pass
+     */
+    public static final class Builder {
+
+        private int size;
+        private long[] startAt;
+        private long[] endAt;
+        private int[] snoozeTimes;
+        private int[] userRefs;
+        private final List<String> userIds = new ArrayList<>();
+        private final Map<String, Integer> userRefsById = new HashMap<>();
+
+        /**
+         * @param capacity int expected event count, grows if exceeded
+         */
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            startAt = new long[capacity];
+            endAt = new long[capacity];
+            snoozeTimes = new int[capacity];
+            userRefs = new int[capacity];
+        }
+
+        /**
+         * append an event started at or after the last one
+         * @param startAt long epoch millis
+         * @param endAt long epoch millis
+         * @param snoozeTimes int
+         * @param userId String or null
+         * @return this Builder
+         */
+        public Builder add(long startAt, long endAt, int snoozeTimes, String userId) {
+            if (size > 0 && startAt < this.startAt[size - 1]) {
+                throw new IllegalArgumentException("events must be added in start time order");
+            }
+            if (size == this.startAt.length) {
+                int capacity = size * 2;
+                this.startAt = resize(this.startAt, capacity);
+                this.endAt = resize(this.endAt, capacity);
+                this.snoozeTimes = resize(this.snoozeTimes, capacity);
+                this.userRefs = resize(this.userRefs, capacity);
+            }
+            this.startAt[size] = startAt;
+            this.endAt[size] = endAt;
+            this.snoozeTimes[size] = snoozeTimes;
+            this.userRefs[size] = toUserRef(userId);
+            size++;
+            return this;
+        }
+
+        private int toUserRef(String userId) {
+            if (userId == null) {
+                return NO_USER;
+            }
+            Integer ref = userRefsById.get(userId);
+            if (ref == null) {
+                ref = userIds.size();
+                userIds.add(userId);
+                userRefsById.put(userId, ref);
+            }
+            return ref;
+        }
+
+        public AlarmHistory build() {
+            return new AlarmHistory(this);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cn.socialclock.model;
+
+import java.util.Calendar;
+
+/**
+ * @author mapler
+ * Wake up statistics of one day, week or month
+ */
+public class AlarmStats {
+
+    /* period types */
+    public static final int PERIOD_DAY = 0;
+    public static final int PERIOD_WEEK = 1;
+    public static final int PERIOD_MONTH = 2;
+    public static final int[] PERIOD_TYPES = {PERIOD_DAY, PERIOD_WEEK, PERIOD_MONTH};
+
+    private int periodType;
+    private long periodStart;
+    private int finishedCount;
+    private int snoozeTotal;
+    private long lateTotal;
+
+    /**
+     * constructor
+     * @param periodType int PERIOD_DAY, PERIOD_WEEK or PERIOD_MONTH
+     * @param periodStart long period start in epoch millis, local time
+     * @param finishedCount int finished alarm events in the period
+     * @param snoozeTotal int total snooze times
+     * @param lateTotal long total millis from alarm to get up
+     */
+    public AlarmStats(int periodType, long periodStart, int finishedCount, int snoozeTotal, long lateTotal) {
+        this.periodType = periodType;
+        this.periodStart = periodStart;
+        this.finishedCount = finishedCount;
+        this.snoozeTotal = snoozeTotal;
+        this.lateTotal = lateTotal;
+    }
+
+    public int getPeriodType() {
+        return periodType;
+    }
+
+    public long getPeriodStart() {
+        return periodStart;
+    }
+
+    public int getFinishedCount() {
+        return finishedCount;
+    }
+
+    public int getSnoozeTotal() {
+        return snoozeTotal;
+    }
+
+    public long getLateTotal() {
+        return lateTotal;
+    }
+
+    /**
+     * average millis from alarm to get up
+     * @return long, 0 if no finished event
+     */
+    public long getAverageLate() {
+        return finishedCount == 0 ? 0 : lateTotal / finishedCount;
+    }
+
+    /**
+     * average snooze times
+     * @return double, 0 if no finished event
+     */
+    public double getAverageSnoozeTimes() {
+        return finishedCount == 0 ? 0 : (double) snoozeTotal / finishedCount;
+    }
+
+    /**
+     * start of the local day, week or month containing a time
+     * @param periodType int PERIOD_DAY, PERIOD_WEEK or PERIOD_MONTH
+     * @param timeInMillis long epoch millis
+     * @return period start in epoch millis
+     */
+    public static long getPeriodStart(int periodType, long timeInMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeInMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (periodType == PERIOD_WEEK) {
+            int daysFromWeekStart = (calendar.get(Calendar.DAY_OF_WEEK)
+                    - calendar.getFirstDayOfWeek() + 7) % 7;
+            calendar.add(Calendar.DATE, -daysFromWeekStart);
+        } else if (periodType == PERIOD_MONTH) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+}
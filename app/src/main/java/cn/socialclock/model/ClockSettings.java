@@ -1,143 +1,452 @@
 package cn.socialclock.model;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import cn.socialclock.R;
 
 /**
  * Created by mapler on 2015/03/06.
  * Handle the Preferences.
+ * One instance per process, reads come from an immutable Snapshot in memory,
+ * changes are batched by an Editor and written to the preferences in one apply().
+ * Only the main process writes. Another process, ex. AlarmReceiver in ":remote", calls reload()
+ * before it reads, or it keeps the values of its first call.
  */
 
 public class ClockSettings {
 
-    private SharedPreferences clockSettingsPreferences;
-    private SharedPreferences.Editor clockSettingsEditor;
+    public static final String KEY_HOUR = "hour";
+    public static final String KEY_MINUTE = "minute";
+    public static final String KEY_WEEK_DAY_FLAG = "weekday_flag";
+    public static final String KEY_IS_ENABLE = "is_enable";
+    public static final String KEY_SNOOZE_DURATION = "snooze_duration";
+    public static final String KEY_USER_ID = "user_id";
+    private static final String KEY_USER_NAME = "user_name";
+
+    private static final String PREFERENCES_NAME = "ClockSettings";
+    private static final String DEFAULT_USER_ID = "0";
+
+    private static ClockSettings instance;
+
+    private final Context context;
+    private final SharedPreferences clockSettingsPreferences;
 
-    private int defaultHour;
-    private int defaultMinutes;
-    private int defaultWeekdayFlag;
-    private int defaultSnoozeDuration;
-    private boolean defaultIsEnable;
+    // current values, replaced as a whole by Editor.apply() or reload()
+    private volatile Snapshot snapshot;
 
-    public final String KEY_HOUR = "hour";
-    public final String KEY_MINUTE = "minute";
-    public final String KEY_WEEK_DAY_FLAG = "weekday_flag";
-    public final String KEY_IS_ENABLE = "is_enable";
-    public final String KEY_SNOOZE_DURATION = "snooze_duration";
-    public final String KEY_USER_ID = "user_id";
-    private final String KEY_USER_NAME = "user_name";
+    private final List<OnClockSettingsChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Get the settings of this process, preferences and resource defaults are read on first call only
+     * @param context Context
+     * @return ClockSettings
+     */
+    public static synchronized ClockSettings getInstance(Context context) {
+        if (instance == null) {
+            instance = new ClockSettings(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Get the settings of this process, read again from the preferences file
+     * call in a process other than main before reading, the file is reloaded only if it changed
+     * @param context Context
+     * @return ClockSettings
+     */
+    public static ClockSettings reload(Context context) {
+        ClockSettings clockSettings = getInstance(context);
+        clockSettings.reload();
+        return clockSettings;
+    }
 
-    public ClockSettings(Context context) {
+    ClockSettings(Context context) {
         /** Init a ClockSettings with a context */
-        this.defaultHour = context.getResources().getInteger(R.integer.hour);
-        this.defaultMinutes = context.getResources().getInteger(R.integer.minutes);
-        this.defaultWeekdayFlag = context.getResources().getInteger(R.integer.weekdayFlag);
-        this.defaultSnoozeDuration = context.getResources().getInteger(R.integer.snoozeDuration);
-        this.defaultIsEnable = context.getResources().getBoolean(R.bool.isEnable);
+        this.context = context;
+        this.clockSettingsPreferences = getPreferences(context);
+        this.snapshot = read();
+    }
 
-        this.clockSettingsPreferences = context.getSharedPreferences("ClockSettings", Context.MODE_PRIVATE);
-        this.clockSettingsEditor = this.clockSettingsPreferences.edit();
+    // multi process mode reloads the file on each call if another process changed it (default before API 11)
+    @SuppressWarnings("deprecation")
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE | Context.MODE_MULTI_PROCESS);
     }
 
-    public int getHour() {
-        /** Get hour(int) from preference */
-        return clockSettingsPreferences.getInt(KEY_HOUR, defaultHour);
+    private Snapshot read() {
+        return new Snapshot(
+                clockSettingsPreferences.getInt(KEY_HOUR, context.getResources().getInteger(R.integer.hour)),
+                clockSettingsPreferences.getInt(KEY_MINUTE, context.getResources().getInteger(R.integer.minutes)),
+                clockSettingsPreferences.getInt(KEY_WEEK_DAY_FLAG,
+                        context.getResources().getInteger(R.integer.weekdayFlag)),
+                clockSettingsPreferences.getInt(KEY_SNOOZE_DURATION,
+                        context.getResources().getInteger(R.integer.snoozeDuration)),
+                clockSettingsPreferences.getBoolean(KEY_IS_ENABLE, context.getResources().getBoolean(R.bool.isEnable)),
+                clockSettingsPreferences.getString(KEY_USER_ID, DEFAULT_USER_ID),
+                clockSettingsPreferences.getString(KEY_USER_NAME, null));
     }
 
-    public ClockSettings setHours(int hour) {
-        /** Set hour(int) to preference */
-        clockSettingsEditor.putInt(KEY_HOUR, hour);
-        clockSettingsEditor.commit();
-        return this;
+    void reload() {
+        Snapshot reloaded;
+        synchronized (this) {
+            // starts reloading the file if another process wrote it, the reads below wait for it
+            getPreferences(context);
+            reloaded = read();
+            if (reloaded.equals(snapshot)) {
+                return;
+            }
+            snapshot = reloaded;
+        }
+        for (OnClockSettingsChangeListener listener : listeners) {
+            listener.onClockSettingsChanged(reloaded);
+        }
     }
 
-    public int getMinute() {
-        /** Get minute(int) from preference */
-        return clockSettingsPreferences.getInt(KEY_MINUTE, defaultMinutes);
+    /**
+     * current values, read several fields from one snapshot to get them consistent
+     * @return Snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
 
-    public ClockSettings setMinute(int minute) {
-        /** Set minute(int) to preference */
-        clockSettingsEditor.putInt(KEY_MINUTE, minute);
-        clockSettingsEditor.commit();
+    /**
+     * start a batch of changes, nothing is changed until Editor.apply()
+     * @return Editor
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * @param listener OnClockSettingsChangeListener called after each applied change
+     */
+    public void registerListener(OnClockSettingsChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unregisterListener(OnClockSettingsChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getHour() {
+        /** Get hour(int) */
+        return snapshot.getHour();
+    }
+
+    public ClockSettings setHours(int hour) {
+        /** Set hour(int), use edit() to change several values at once */
+        edit().setHour(hour).apply();
         return this;
     }
 
-    private int getWeekdayFlag() {
-        /** Get week day flag (int) from preference */
-        // TODO, change weekDayFlag to an object with compare method
-        return clockSettingsPreferences.getInt(KEY_WEEK_DAY_FLAG, defaultWeekdayFlag);
+    public int getMinute() {
+        /** Get minute(int) */
+        return snapshot.getMinute();
     }
 
-    private ClockSettings setWeekdayFlag(int weekdayFlag) {
-        /** Set week day flag (int) to preference */
-        clockSettingsEditor.putInt(KEY_WEEK_DAY_FLAG, weekdayFlag);
-        clockSettingsEditor.commit();
+    public ClockSettings setMinute(int minute) {
+        /** Set minute(int), use edit() to change several values at once */
+        edit().setMinute(minute).apply();
         return this;
     }
 
     public boolean isWeekdayEnable(int weekdayId) {
         /** check if weekday is enable with bitwise compare */
-        int binaryDayId = (int) Math.pow(2, weekdayId);
-        int weekDayFlag = getWeekdayFlag();
-        return (weekDayFlag | binaryDayId) == weekDayFlag;
+        return snapshot.isWeekdayEnable(weekdayId);
     }
 
     public void switchWeekdayEnable(int weekdayId) {
         /** switch weekday enable settings by bitwise XOR */
-        int binaryDayId = (int) Math.pow(2, weekdayId);
-        int weekDayFlag = getWeekdayFlag();
-        weekDayFlag = weekDayFlag ^ binaryDayId;
-        setWeekdayFlag(weekDayFlag);
+        edit().switchWeekdayEnable(weekdayId).apply();
     }
 
     public int getSnoozeDuration() {
-        /** Get snooze time (int) from preference */
-        return clockSettingsPreferences.getInt(KEY_SNOOZE_DURATION, defaultSnoozeDuration);
+        /** Get snooze time (int) */
+        return snapshot.getSnoozeDuration();
     }
 
     public ClockSettings setSnoozeDuration(int snoozeDuration) {
-        /** Set snooze time (int) to preference */
-        clockSettingsEditor.putInt(KEY_SNOOZE_DURATION, snoozeDuration);
-        clockSettingsEditor.commit();
+        /** Set snooze time (int) */
+        edit().setSnoozeDuration(snoozeDuration).apply();
         return this;
     }
 
     public boolean getIsEnable() {
-        /** Get if enable (boolean) from preference */
-        return clockSettingsPreferences.getBoolean(KEY_IS_ENABLE, defaultIsEnable);
+        /** Get if enable (boolean) */
+        return snapshot.getIsEnable();
     }
 
-    public ClockSettings setIsEnable(int isEnable) {
-        /** Set if enable (boolean) to preference */
-        clockSettingsEditor.putInt(KEY_IS_ENABLE, isEnable);
-        clockSettingsEditor.commit();
+    public ClockSettings setIsEnable(boolean isEnable) {
+        /** Set if enable (boolean) */
+        edit().setIsEnable(isEnable).apply();
         return this;
     }
 
     public String getUserId() {
         /** Get user Id */
-        return clockSettingsPreferences.getString(KEY_USER_ID, "0");
+        return snapshot.getUserId();
     }
 
     public ClockSettings setUserId(String userId) {
-        clockSettingsEditor.putString(KEY_USER_ID, userId);
-        clockSettingsEditor.commit();
+        edit().setUserId(userId).apply();
         return this;
     }
 
     /** Get user name */
     public String getUserName() {
-        return clockSettingsPreferences.getString(KEY_USER_NAME, null);
+        return snapshot.getUserName();
     }
 
     /** Set user name */
     public ClockSettings setUserName(String userName) {
-        clockSettingsEditor.putString(KEY_USER_NAME, userName);
-        clockSettingsEditor.commit();
+        edit().setUserName(userName).apply();
         return this;
     }
 
+    /**
+     * publish the changes of an editor on the current snapshot and write them to the preferences
+     * applied in order, so editors of different threads do not lose each other's changes
+     */
+    private void apply(Editor editor) {
+        Snapshot changed;
+        synchronized (this) {
+            Snapshot current = snapshot;
+            changed = editor.applyTo(current);
+            if (changed.equals(current)) {
+                return;
+            }
+            snapshot = changed;
+            SharedPreferences.Editor preferencesEditor = clockSettingsPreferences.edit();
+            editor.putTo(preferencesEditor, changed);
+            save(preferencesEditor);
+        }
+        for (OnClockSettingsChangeListener listener : listeners) {
+            listener.onClockSettingsChanged(changed);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static void save(SharedPreferences.Editor preferencesEditor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            // written in the background, the snapshot is already up to date
+            preferencesEditor.apply();
+        } else {
+            preferencesEditor.commit();
+        }
+    }
+
+    /**
+     * Listener of applied or reloaded changes, called on the thread of Editor.apply() or reload()
+     */
+    public interface OnClockSettingsChangeListener {
+        void onClockSettingsChanged(Snapshot settings);
+    }
+
+    /**
+     * Immutable values of the settings at one time
+     */
+    public static final class Snapshot {
+
+        private final int hour;
+        private final int minute;
+        private final int weekdayFlag;
+        private final int snoozeDuration;
+        private final boolean isEnable;
+        private final String userId;
+        private final String userName;
+
+        private Snapshot(int hour, int minute, int weekdayFlag, int snoozeDuration, boolean isEnable,
+                         String userId, String userName) {
+            this.hour = hour;
+            this.minute = minute;
+            this.weekdayFlag = weekdayFlag;
+            this.snoozeDuration = snoozeDuration;
+            this.isEnable = isEnable;
+            this.userId = userId;
+            this.userName = userName;
+        }
+
+        public int getHour() {
+            return hour;
+        }
+
+        public int getMinute() {
+            return minute;
+        }
+
+        public boolean isWeekdayEnable(int weekdayId) {
+            // TODO, change weekDayFlag to an object with compare method
+            return (weekdayFlag & (1 << weekdayId)) != 0;
+        }
+
+        public int getSnoozeDuration() {
+            return snoozeDuration;
+        }
+
+        public boolean getIsEnable() {
+            return isEnable;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return hour == other.hour
+                    && minute == other.minute
+                    && weekdayFlag == other.weekdayFlag
+                    && snoozeDuration == other.snoozeDuration
+                    && isEnable == other.isEnable
+                    && equal(userId, other.userId)
+                    && equal(userName, other.userName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = hour;
+            result = 31 * result + minute;
+            result = 31 * result + weekdayFlag;
+            result = 31 * result + snoozeDuration;
+            result = 31 * result + (isEnable ? 1 : 0);
+            result = 31 * result + (userId == null ? 0 : userId.hashCode());
+            result = 31 * result + (userName == null ? 0 : userName.hashCode());
+            return result;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Batch of changes, applied together on the snapshot current at apply()
+     * not thread safe, use one editor per batch
+     */
+    public final class Editor {
+
+        private static final int HOUR = 1;
+        private static final int MINUTE = 1 << 1;
+        private static final int SNOOZE_DURATION = 1 << 2;
+        private static final int IS_ENABLE = 1 << 3;
+        private static final int USER_ID = 1 << 4;
+        private static final int USER_NAME = 1 << 5;
+
+        // fields set in this batch
+        private int changes;
+        private int hour;
+        private int minute;
+        private int snoozeDuration;
+        private boolean isEnable;
+        private String userId;
+        private String userName;
+        // weekdays switched in this batch, XORed on the current flag
+        private int weekdaySwitches;
+
+        private Editor() {
+        }
+
+        public Editor setHour(int hour) {
+            this.hour = hour;
+            changes |= HOUR;
+            return this;
+        }
+
+        public Editor setMinute(int minute) {
+            this.minute = minute;
+            changes |= MINUTE;
+            return this;
+        }
+
+        public Editor switchWeekdayEnable(int weekdayId) {
+            weekdaySwitches ^= 1 << weekdayId;
+            return this;
+        }
+
+        public Editor setSnoozeDuration(int snoozeDuration) {
+            this.snoozeDuration = snoozeDuration;
+            changes |= SNOOZE_DURATION;
+            return this;
+        }
+
+        public Editor setIsEnable(boolean isEnable) {
+            this.isEnable = isEnable;
+            changes |= IS_ENABLE;
+            return this;
+        }
+
+        public Editor setUserId(String userId) {
+            this.userId = userId;
+            changes |= USER_ID;
+            return this;
+        }
+
+        public Editor setUserName(String userName) {
+            this.userName = userName;
+            changes |= USER_NAME;
+            return this;
+        }
+
+        /**
+         * publish the changes and notify listeners, the preferences are written asynchronously
+         * (synchronously before API 9, which has no SharedPreferences.Editor.apply())
+         */
+        public void apply() {
+            ClockSettings.this.apply(this);
+        }
+
+        private Snapshot applyTo(Snapshot current) {
+            return new Snapshot(
+                    (changes & HOUR) != 0 ? hour : current.hour,
+                    (changes & MINUTE) != 0 ? minute : current.minute,
+                    current.weekdayFlag ^ weekdaySwitches,
+                    (changes & SNOOZE_DURATION) != 0 ? snoozeDuration : current.snoozeDuration,
+                    (changes & IS_ENABLE) != 0 ? isEnable : current.isEnable,
+                    (changes & USER_ID) != 0 ? userId : current.userId,
+                    (changes & USER_NAME) != 0 ? userName : current.userName);
+        }
+
+        /** put the fields changed in this batch, as they are in the applied snapshot */
+        private void putTo(SharedPreferences.Editor preferencesEditor, Snapshot applied) {
+            if ((changes & HOUR) != 0) {
+                preferencesEditor.putInt(KEY_HOUR, applied.hour);
+            }
+            if ((changes & MINUTE) != 0) {
+                preferencesEditor.putInt(KEY_MINUTE, applied.minute);
+            }
+            if (weekdaySwitches != 0) {
+                preferencesEditor.putInt(KEY_WEEK_DAY_FLAG, applied.weekdayFlag);
+            }
+            if ((changes & SNOOZE_DURATION) != 0) {
+                preferencesEditor.putInt(KEY_SNOOZE_DURATION, applied.snoozeDuration);
+            }
+            if ((changes & IS_ENABLE) != 0) {
+                preferencesEditor.putBoolean(KEY_IS_ENABLE, applied.isEnable);
+            }
+            if ((changes & USER_ID) != 0) {
+                preferencesEditor.putString(KEY_USER_ID, applied.userId);
+            }
+            if ((changes & USER_NAME) != 0) {
+                preferencesEditor.putString(KEY_USER_NAME, applied.userName);
+            }
+        }
+    }
 }
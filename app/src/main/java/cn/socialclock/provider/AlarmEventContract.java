@@ -0,0 +1,32 @@
+package cn.socialclock.provider;
+
+import android.net.Uri;
+
+/**
+ * @author mapler
+ * Uris notified when alarm events change, observed through ContentResolver.registerContentObserver.
+ * No provider serves them. Alarm events are written only in the main process, on the one
+ * shared connection, AlarmReceiver in ":remote" hands rescheduling to NextAlarmReceiver,
+ * and notifyChange reaches observers of every process without a provider.
+ */
+public final class AlarmEventContract {
+
+    public static final String AUTHORITY = "cn.socialclock.provider";
+
+    public static final String PATH_ALARM_EVENTS = "alarm_events";
+
+    // all alarm events, notified when rows of more than one event change
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + PATH_ALARM_EVENTS);
+
+    private AlarmEventContract() {
+    }
+
+    /**
+     * uri of one alarm event
+     * @param eventId String
+     * @return Uri content://cn.socialclock.provider/alarm_events/{eventId}
+     */
+    public static Uri buildEventUri(String eventId) {
+        return Uri.withAppendedPath(CONTENT_URI, Uri.encode(eventId));
+    }
+}
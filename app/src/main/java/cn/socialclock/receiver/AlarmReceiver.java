@@ -6,7 +6,6 @@ import android.content.Intent;
 
 import java.util.Calendar;
 
-import cn.socialclock.manager.SocialClockManager;
 import cn.socialclock.model.ClockSettings;
 import cn.socialclock.ui.AlarmPopActivity;
 import cn.socialclock.utils.ConstantData;
@@ -26,7 +25,8 @@ public class AlarmReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         SocialClockLogger.log("AlarmReceiver: onReceive start");
 
-        ClockSettings clockSettings = new ClockSettings(context);
+        // runs in ":remote", settings are changed in the main process
+        ClockSettings clockSettings = ClockSettings.reload(context);
 
         int alarmType = intent.getIntExtra(ConstantData.BundleArgsName.ALARM_TYPE,
                 ConstantData.AlarmType.ALARM_NORMAL);
@@ -50,13 +50,9 @@ public class AlarmReceiver extends BroadcastReceiver {
                     | Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
             context.startActivity(popupIntent);
         } else {
-            /* else start next alarm */
+            /* else start next alarm, in the main process which writes alarm events */
             SocialClockLogger.log("AlarmReceiver: silence day, " + DatetimeFormatter.calendarToString(now));
-            SocialClockManager socialClockManager = new SocialClockManager(context);
-            // cancel current Alarm Event
-            socialClockManager.cancelAlarm();
-            // create next Alarm
-            socialClockManager.createAlarm();
+            context.sendBroadcast(new Intent(context, NextAlarmReceiver.class));
         }
     }
 }
@@ -0,0 +1,23 @@
+package cn.socialclock.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import cn.socialclock.manager.SocialClockManager;
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ *  Maintenance Receiver
+ *  fired by the daily inexact maintenance alarm, in the main process which writes alarm events
+ *  queues the maintenance on the writer thread and returns
+ */
+public class MaintenanceReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        SocialClockLogger.log("MaintenanceReceiver: onReceive start");
+        new SocialClockManager(context).runMaintenance();
+    }
+}
@@ -0,0 +1,27 @@
+package cn.socialclock.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import cn.socialclock.manager.SocialClockManager;
+import cn.socialclock.utils.SocialClockLogger;
+
+/**
+ * @author mapler
+ *  Next Alarm Receiver
+ *  sent by AlarmReceiver on a silence day, cancels the current alarm event and creates the next alarm
+ *  in the main process, so ":remote" never writes alarm events
+ */
+public class NextAlarmReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        SocialClockLogger.log("NextAlarmReceiver: onReceive start");
+        SocialClockManager socialClockManager = new SocialClockManager(context);
+        // cancel current Alarm Event
+        socialClockManager.cancelAlarm();
+        // create next Alarm
+        socialClockManager.createAlarm();
+    }
+}
@@ -16,6 +16,7 @@ import cn.socialclock.manager.SocialClockManager;
 import cn.socialclock.model.ClockSettings;
 import cn.socialclock.utils.ConstantData;
 import cn.socialclock.utils.SocialClockLogger;
+import cn.socialclock.utils.TimeText;
 
 /**
  * @author mapler
@@ -48,7 +49,7 @@ public class AlarmPopActivity extends Activity {
         super.onCreate(savedInstanceState);
 
         // get setting preference
-        clockSettings = new ClockSettings(this);
+        clockSettings = ClockSettings.getInstance(this);
 
         // alarm creator init
         socialClockManager = new SocialClockManager(this);
@@ -114,10 +115,8 @@ public class AlarmPopActivity extends Activity {
 
     /** build clock time text */
     private void buildTimeTextInterface() {
-        String nowHour = String.format("%02d", nowCalendar.get(Calendar.HOUR));
-        String nowMinute = String.format("%02d", nowCalendar.get(Calendar.MINUTE));
         TextView txTime = (TextView) findViewById(R.id.txClock);
-        txTime.setText(nowHour + ":" + nowMinute);
+        txTime.setText(TimeText.hourMinute(nowCalendar.get(Calendar.HOUR), nowCalendar.get(Calendar.MINUTE)));
     }
 
     /** forbidden hard keys
@@ -3,16 +3,29 @@ package cn.socialclock.ui;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.Window;
+import android.widget.AbsListView;
 import android.widget.Button;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import cn.socialclock.R;
 import cn.socialclock.manager.SocialClockManager;
+import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.model.AlarmEventPage;
+import cn.socialclock.provider.AlarmEventContract;
 import cn.socialclock.utils.ConstantData;
 import cn.socialclock.utils.SocialClockLogger;
 
@@ -20,6 +33,39 @@ public class HistoryActivity extends Activity implements OnClickListener {
 
     private SocialClockManager socialClockManager;
 
+    // loaded alarm events newest first, grows page by page, and their rows in the list
+    private List<AlarmEvent> loadedAlarmEvents = new ArrayList<>();
+    private List<Map<String, Object>> parsedAlarmEvents = new ArrayList<>();
+    private SimpleAdapter allAlarmEventAdapter;
+    private String nextPageToken;
+    private boolean hasNextPage = true;
+    private boolean isLoadingPage;
+
+    // counted up by reloadAll, results of loads started before are dropped
+    private int loadGeneration;
+
+    // db and archive are read on this thread, results are posted back to the UI thread
+    private ExecutorService loader;
+    private final Handler uiHandler = new Handler();
+    private boolean isDestroyed;
+
+    // reloads only the changed event when the writer notifies one
+    private final ContentObserver alarmEventObserver = new ContentObserver(uiHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reloadAll();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri == null || AlarmEventContract.CONTENT_URI.equals(uri)) {
+                reloadAll();
+            } else {
+                reloadAlarmEvent(uri.getLastPathSegment());
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         SocialClockLogger.log("HistoryActivity: onCreate");
@@ -28,9 +74,21 @@ public class HistoryActivity extends Activity implements OnClickListener {
 
         // alarm creator init
         socialClockManager = new SocialClockManager(this);
+        loader = Executors.newSingleThreadExecutor();
 
         // build ui
         buildInterface();
+
+        getContentResolver().registerContentObserver(AlarmEventContract.CONTENT_URI, true,
+                alarmEventObserver);
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(alarmEventObserver);
+        isDestroyed = true;
+        loader.shutdownNow();
+        super.onDestroy();
     }
 
     private void buildInterface() {
@@ -49,12 +107,12 @@ public class HistoryActivity extends Activity implements OnClickListener {
 
     }
 
-    /** alarm event list */
+    /** alarm event list, next page is loaded when scrolled to the end */
     private void buildListInterface() {
         ListView listView = (ListView) findViewById(R.id.alarm_event_list);
 
-        SimpleAdapter allAlarmEventAdapter = new SimpleAdapter(this,
-                socialClockManager.getParsedFinishedAlarmEvents(), R.layout.alarmeventitem,
+        allAlarmEventAdapter = new SimpleAdapter(this,
+                parsedAlarmEvents, R.layout.alarmeventitem,
                 new String[] {ConstantData.AdapterKey.ALARM_EVENT_USER_NAME_KEY,
                         ConstantData.AdapterKey.ALARM_EVENT_START_AT_KEY,
                         ConstantData.AdapterKey.ALARM_EVENT_END_AT_KEY,
@@ -62,6 +120,153 @@ public class HistoryActivity extends Activity implements OnClickListener {
                 new int[] {R.id.userName, R.id.startAt, R.id.endAt, R.id.snoozeTimes});
 
         listView.setAdapter(allAlarmEventAdapter);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                                 int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        // first page
+        loadNextPage();
+    }
+
+    /** read next page of alarm events in background and append it to list */
+    private void loadNextPage() {
+        if (!hasNextPage || isLoadingPage) {
+            return;
+        }
+        isLoadingPage = true;
+        final int generation = loadGeneration;
+        final String pageToken = nextPageToken;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final AlarmEventPage page = socialClockManager.getFinishedAlarmEventPage(pageToken,
+                        ConstantData.History.PAGE_SIZE);
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed && generation == loadGeneration) {
+                            onPageLoaded(page);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(AlarmEventPage page) {
+        for (AlarmEvent alarmEvent : page.getAlarmEvents()) {
+            loadedAlarmEvents.add(alarmEvent);
+            parsedAlarmEvents.add(socialClockManager.parseAlarmEvent(alarmEvent));
+        }
+        nextPageToken = page.getNextPageToken();
+        hasNextPage = page.hasNextPage();
+        isLoadingPage = false;
+        allAlarmEventAdapter.notifyDataSetChanged();
+    }
+
+    /** reload list from the first page */
+    private void reloadAll() {
+        loadGeneration++;
+        loadedAlarmEvents.clear();
+        parsedAlarmEvents.clear();
+        nextPageToken = null;
+        hasNextPage = true;
+        isLoadingPage = false;
+        allAlarmEventAdapter.notifyDataSetChanged();
+        loadNextPage();
+    }
+
+    /** read one changed alarm event in background, then update its row */
+    private void reloadAlarmEvent(final String alarmEventId) {
+        final int generation = loadGeneration;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final AlarmEvent alarmEvent = socialClockManager.getAlarmEvent(alarmEventId);
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed && generation == loadGeneration) {
+                            onAlarmEventLoaded(alarmEventId, alarmEvent);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * replace, add or remove one alarm event in list
+     * a row is added only where paging has passed, later pages read it as usual
+     */
+    private void onAlarmEventLoaded(String alarmEventId, AlarmEvent alarmEvent) {
+        boolean shown = alarmEvent != null && alarmEvent.isFinished() && !alarmEvent.isDeleted();
+        int position = -1;
+        for (int i = 0; i < loadedAlarmEvents.size(); i++) {
+            if (alarmEventId.equals(loadedAlarmEvents.get(i).getEventId())) {
+                position = i;
+                break;
+            }
+        }
+        if (position >= 0 && shown) {
+            loadedAlarmEvents.set(position, alarmEvent);
+            parsedAlarmEvents.set(position, socialClockManager.parseAlarmEvent(alarmEvent));
+        } else if (position >= 0) {
+            loadedAlarmEvents.remove(position);
+            parsedAlarmEvents.remove(position);
+        } else if (shown && isPagedOver(alarmEvent)) {
+            position = findInsertPosition(alarmEvent);
+            loadedAlarmEvents.add(position, alarmEvent);
+            parsedAlarmEvents.add(position, socialClockManager.parseAlarmEvent(alarmEvent));
+        } else {
+            return;
+        }
+        allAlarmEventAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * check an event sorts before the key of the next page, so no later page will read it
+     * nothing is paged over before the first page is loaded, everything after the last one
+     */
+    private boolean isPagedOver(AlarmEvent alarmEvent) {
+        if (!hasNextPage) {
+            return true;
+        }
+        if (nextPageToken == null) {
+            return false;
+        }
+        long startAt = AlarmEventPage.getTokenStartAt(nextPageToken);
+        if (alarmEvent.getStartAtMillis() != startAt) {
+            return alarmEvent.getStartAtMillis() > startAt;
+        }
+        return alarmEvent.getEventId().compareTo(AlarmEventPage.getTokenEventId(nextPageToken)) > 0;
+    }
+
+    /** position of an event in loaded events, newest first by (start_at, event_id) */
+    private int findInsertPosition(AlarmEvent alarmEvent) {
+        int position = 0;
+        while (position < loadedAlarmEvents.size()
+                && compareKey(loadedAlarmEvents.get(position), alarmEvent) > 0) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int compareKey(AlarmEvent a, AlarmEvent b) {
+        if (a.getStartAtMillis() != b.getStartAtMillis()) {
+            return a.getStartAtMillis() < b.getStartAtMillis() ? -1 : 1;
+        }
+        return a.getEventId().compareTo(b.getEventId());
     }
 
     /** tab menu init */
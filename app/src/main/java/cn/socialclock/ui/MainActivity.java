@@ -26,6 +26,7 @@ import cn.socialclock.R;
 import cn.socialclock.manager.SocialClockManager;
 import cn.socialclock.model.ClockSettings;
 import cn.socialclock.utils.SocialClockLogger;
+import cn.socialclock.utils.TimeText;
 import io.fabric.sdk.android.Fabric;
 
 /**
@@ -66,7 +67,7 @@ public class MainActivity extends Activity implements OnClickListener {
         Fabric.with(this, new Twitter(authConfig));
 
         // get setting preference
-        clockSettings = new ClockSettings(this);
+        clockSettings = ClockSettings.getInstance(this);
 
         // alarm creator init
         socialClockManager = new SocialClockManager(this);
@@ -117,13 +118,13 @@ public class MainActivity extends Activity implements OnClickListener {
         // hour init
         hour = clockSettings.getHour();
         textHour = (TextView) findViewById(R.id.texthour);
-        textHour.setText(String.format("%02d", hour));
+        textHour.setText(TimeText.twoDigits(hour));
         textHour.setOnClickListener(this);
 
         // minute init
         minute = clockSettings.getMinute();
         textMinute = (TextView) findViewById(R.id.textminute);
-        textMinute.setText(String.format("%02d", minute));
+        textMinute.setText(TimeText.twoDigits(minute));
         textMinute.setOnClickListener(this);
 
         // init setting mode, off
@@ -256,8 +257,10 @@ public class MainActivity extends Activity implements OnClickListener {
      * logout ui
      */
     private void updateInterfaceOnLogout() {
-        clockSettings.setUserId("0");
-        clockSettings.setUserName("");
+        clockSettings.edit()
+                .setUserId("0")
+                .setUserName("")
+                .apply();
 
         TextView textUserName = (TextView) findViewById(R.id.textusername);
         textUserName.setText("");
@@ -292,8 +295,10 @@ public class MainActivity extends Activity implements OnClickListener {
      */
     private void onLogin(Result<TwitterSession> result) {
         TwitterSession twitterSession = result.data;
-        clockSettings.setUserId(Long.toString(twitterSession.getUserId()));
-        clockSettings.setUserName(twitterSession.getUserName());
+        clockSettings.edit()
+                .setUserId(Long.toString(twitterSession.getUserId()))
+                .setUserName(twitterSession.getUserName())
+                .apply();
         updateInterfaceOnLogin();
     }
     /**
@@ -360,12 +365,14 @@ public class MainActivity extends Activity implements OnClickListener {
             isClockSettingModeOn = true;
         } else {
             // update settings
-            clockSettings.setHours(hour);
-            clockSettings.setMinute(minute);
+            // one write for both fields
+            clockSettings.edit()
+                    .setHour(hour)
+                    .setMinute(minute)
+                    .apply();
             if ((hour != ex_hour) || (minute != ex_minute)) {
                 String message = "AlarmTime is update to "
-                        + String.format("%02d", hour) + ":"
-                        + String.format("%02d", minute);
+                        + TimeText.hourMinute(hour, minute);
                 Toast.makeText(this, message,
                         Toast.LENGTH_SHORT).show();
                 // cancel current Alarm Event
@@ -410,24 +417,24 @@ public class MainActivity extends Activity implements OnClickListener {
     /** handle adjust hour up */
     private void upHourTime() {
         hour = hour < 23 ? (++hour) : 0;
-        textHour.setText(String.format("%02d", hour));
+        textHour.setText(TimeText.twoDigits(hour));
     }
 
     /** handle adjust hour down */
     private void downHourTime() {
         hour = hour > 0 ? (--hour) : 23;
-        textHour.setText(String.format("%02d", hour));
+        textHour.setText(TimeText.twoDigits(hour));
     }
 
     /** handle adjust minute up */
     private void upMinuteTime() {
         minute = minute < 59 ? (++minute) : 0;
-        textMinute.setText(String.format("%02d", minute));
+        textMinute.setText(TimeText.twoDigits(minute));
     }
 
     /** handle adjust minute down */
     private void downMinuteTime() {
         minute = minute > 0 ? (--minute) : 59;
-        textMinute.setText(String.format("%02d", minute));
+        textMinute.setText(TimeText.twoDigits(minute));
     }
 }
\ No newline at end of file
@@ -3,15 +3,31 @@ package cn.socialclock.ui;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
 import android.view.Window;
 import android.widget.Button;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import cn.socialclock.R;
+import cn.socialclock.manager.SocialClockManager;
+import cn.socialclock.utils.ConstantData;
+import cn.socialclock.utils.SocialClockLogger;
 
 public class SettingsActivity extends Activity {
 
+    private SocialClockManager socialClockManager;
+
+    // export and import run on this thread, results are posted back to the UI thread
+    private ExecutorService backupRunner;
+    private final Handler uiHandler = new Handler();
+    private boolean isDestroyed;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         // TODO Auto-generated method stub
@@ -35,6 +51,71 @@ public class SettingsActivity extends Activity {
                 SettingsActivity.this.startActivity(switchTabMain);
             }
         });
+
+        socialClockManager = new SocialClockManager(this);
+        backupRunner = Executors.newSingleThreadExecutor();
+        Button btn_exportHistory = (Button) findViewById(R.id.btn_exportHistory);
+        btn_exportHistory.setOnClickListener(new Button.OnClickListener() {
+            public void onClick(View v) {
+                runBackup(true);
+            }
+        });
+        Button btn_importHistory = (Button) findViewById(R.id.btn_importHistory);
+        btn_importHistory.setOnClickListener(new Button.OnClickListener() {
+            public void onClick(View v) {
+                runBackup(false);
+            }
+        });
         Toast.makeText(SettingsActivity.this, "in development", Toast.LENGTH_SHORT).show();
     }
+
+    @Override
+    protected void onDestroy() {
+        isDestroyed = true;
+        // a running export or import is finished by the writer thread
+        backupRunner.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * export history to or import it from the backup file in app external files, in background
+     * @param isExport boolean
+     */
+    private void runBackup(final boolean isExport) {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            Toast.makeText(this, "external storage not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final File file = new File(dir, ConstantData.History.BACKUP_FILE_NAME);
+        if (!isExport && !file.exists()) {
+            Toast.makeText(this, "no backup at " + file.getPath(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        backupRunner.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    if (isExport) {
+                        message = "exported " + socialClockManager.exportHistory(file) + " to " + file.getPath();
+                    } else {
+                        message = "imported " + socialClockManager.importHistory(file) + " events";
+                    }
+                } catch (IOException e) {
+                    SocialClockLogger.error("SettingsActivity: backup fail. " + e.toString());
+                    message = (isExport ? "export" : "import") + " fail";
+                }
+                final String result = message;
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed) {
+                            Toast.makeText(SettingsActivity.this, result, Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        });
+    }
 }
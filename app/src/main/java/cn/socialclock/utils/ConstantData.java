@@ -21,12 +21,20 @@ public class ConstantData {
     }
 
     public static class AdapterKey {
+        public static final String ALARM_EVENT_ID_KEY = "eventId";
         public static final String ALARM_EVENT_USER_NAME_KEY = "userName";
         public static final String ALARM_EVENT_START_AT_KEY = "startAt";
         public static final String ALARM_EVENT_END_AT_KEY = "endAt";
         public static final String ALARM_EVENT_SNOOZE_TIMES_KEY = "snoozeTimes";
     }
 
+    public static class History {
+        public static final int PAGE_SIZE = 50; // alarm events read per history page
+        public static final int ARCHIVE_AFTER_DAYS = 90; // finished events older are moved to the archive
+        public static final int ARCHIVE_MIN_BATCH = 30; // archive file is rewritten only for this many events
+        public static final String BACKUP_FILE_NAME = "socialclock_history.scbk"; // in app external files
+    }
+
     public static class UserName {
         public static final String ANONYMOUS_USER = "ANONYMOUS";
     }
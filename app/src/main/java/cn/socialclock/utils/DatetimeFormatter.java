@@ -1,48 +1,165 @@
 package cn.socialclock.utils;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Created by mapler on 2015/03/11.
- * Format between String and Calendar
+ * Format between String and epoch millis or Calendar, as local "yyyy-MM-dd HH:mm:ss".
+ * Stateless, so safe to call from any thread, and digits are always ASCII whatever the default locale is.
+ * The default time zone is read on each call, so a zone change applies at once in every process.
  */
 public class DatetimeFormatter {
 
-    private static final String DATETIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat(
-            DATETIME_FORMAT, Locale.getDefault());
+    // "yyyy-MM-dd HH:mm:ss"
+    private static final int DATETIME_LENGTH = 19;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
 
     /**
      * Format Calendar object to String
      * @param calendar Calendar object
-     * @return datetime string
+     * @return datetime string, null if calendar is null
      */
     public static String calendarToString(Calendar calendar) {
-        try {
-            return dateFormat.format(calendar.getTime());
-        } catch (NullPointerException e) {
+        if (calendar == null) {
             return null;
         }
+        return millisToString(calendar.getTimeInMillis());
+    }
 
+    /**
+     * Format epoch millis to String, without a Calendar
+     * @param millis long epoch millis
+     * @return datetime string
+     */
+    public static String millisToString(long millis) {
+        return appendTo(new StringBuilder(DATETIME_LENGTH), millis).toString();
+    }
+
+    /**
+     * Append formatted epoch millis, only the default time zone copy is allocated if the builder has room
+     * @param builder StringBuilder
+     * @param millis long epoch millis
+     * @return the builder
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long millis) {
+        int start = builder.length();
+        builder.setLength(start + DATETIME_LENGTH);
+        long local = millis + TimeZone.getDefault().getOffset(millis);
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+        // proleptic Gregorian date of days since 1970-01-01, eras of 400 years from 0000-03-01
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        write(builder, start, year, 4);
+        builder.setCharAt(start + 4, '-');
+        write(builder, start + 5, month, 2);
+        builder.setCharAt(start + 7, '-');
+        write(builder, start + 8, day, 2);
+        builder.setCharAt(start + 10, ' ');
+        write(builder, start + 11, millisOfDay / 3600000, 2);
+        builder.setCharAt(start + 13, ':');
+        write(builder, start + 14, millisOfDay / 60000 % 60, 2);
+        builder.setCharAt(start + 16, ':');
+        write(builder, start + 17, millisOfDay / 1000 % 60, 2);
+        return builder;
     }
 
     /**
      * create Calendar object by String
      * @param datetimeString String
-     * @return Calendar object or null
+     * @return Calendar object or null if not a datetime string
      */
     public static Calendar stringToCalendar(String datetimeString) {
-        try {
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(dateFormat.parse(datetimeString));
-            return calendar;
-        } catch (ParseException e) {
-            return null;
-        } catch (NullPointerException e) {
+        long millis = stringToMillis(datetimeString, Long.MIN_VALUE);
+        if (millis == Long.MIN_VALUE) {
             return null;
         }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    /**
+     * parse a datetime string to epoch millis
+     * @param datetimeString String "yyyy-MM-dd HH:mm:ss" in local time
+     * @param defaultMillis long returned if null or not a datetime string
+     * @return long epoch millis
+     */
+    public static long stringToMillis(String datetimeString, long defaultMillis) {
+        if (datetimeString == null || datetimeString.length() != DATETIME_LENGTH
+                || datetimeString.charAt(4) != '-' || datetimeString.charAt(7) != '-'
+                || datetimeString.charAt(10) != ' '
+                || datetimeString.charAt(13) != ':' || datetimeString.charAt(16) != ':') {
+            return defaultMillis;
+        }
+        int year = read(datetimeString, 0, 4);
+        int month = read(datetimeString, 5, 2);
+        int day = read(datetimeString, 8, 2);
+        int hour = read(datetimeString, 11, 2);
+        int minute = read(datetimeString, 14, 2);
+        int second = read(datetimeString, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return defaultMillis;
+        }
+        long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L;
+        // offset of the local time, checked again at the result for daylight saving changes
+        TimeZone zone = TimeZone.getDefault();
+        int offset = zone.getOffset(local - zone.getRawOffset());
+        int resultOffset = zone.getOffset(local - offset);
+        return local - resultOffset;
+    }
+
+    private static void write(StringBuilder builder, int index, int value, int width) {
+        for (int i = index + width - 1; i >= index; i--) {
+            builder.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    /** @return the digits as int, -1 if a char is not a digit */
+    private static int read(String string, int index, int width) {
+        int value = 0;
+        for (int i = index; i < index + width; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? quotient - 1 : quotient;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /** days since 1970-01-01 of a proleptic Gregorian date */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
     }
 }
@@ -0,0 +1,67 @@
+package cn.socialclock.utils;
+
+import android.os.Process;
+
+/**
+ * @author mapler
+ * Time ordered event ids, 16 chars of lower case Crockford base32:
+ * 50 bits epoch millis, 15 bits process id, 15 bits counter.
+ * Ids of one process always increase, so new rows are appended at the end of the
+ * event_id index. The pid keeps ids of the main and :remote process apart.
+ * No SecureRandom is needed. Old UUID ids stay valid, ids are only compared as strings.
+ */
+public class EventIdGenerator {
+
+    // ascending ASCII order, so ids sort as strings the same as by value
+    private static final char[] BASE32 = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+
+    private static final int TIME_CHARS = 10;
+    private static final int TAIL_CHARS = 6;
+    private static final int COUNTER_BITS = 15;
+    private static final int COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+    private static final int PID_MASK = (1 << 15) - 1;
+
+    private static final int PID = Process.myPid() & PID_MASK;
+
+    private static long lastMillis;
+    private static int counter;
+
+    /**
+     * Generate the next id of this process
+     * @return id String of 16 chars
+     */
+    public static String next() {
+        long millis;
+        int count;
+        synchronized (EventIdGenerator.class) {
+            millis = System.currentTimeMillis();
+            if (millis > lastMillis) {
+                lastMillis = millis;
+                counter = 0;
+            } else if (counter < COUNTER_MAX) {
+                // same millis, or clock went back
+                counter++;
+            } else {
+                // counter used up, borrow the next millis
+                lastMillis++;
+                counter = 0;
+            }
+            millis = lastMillis;
+            count = counter;
+        }
+        char[] id = new char[TIME_CHARS + TAIL_CHARS];
+        encode(id, 0, TIME_CHARS, millis);
+        encode(id, TIME_CHARS, TAIL_CHARS, ((long) PID << COUNTER_BITS) | count);
+        return new String(id);
+    }
+
+    /**
+     * write the low 5 * length bits of value as base32, most significant first
+     */
+    private static void encode(char[] chars, int offset, int length, long value) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = BASE32[(int) (value & 31)];
+            value >>>= 5;
+        }
+    }
+}
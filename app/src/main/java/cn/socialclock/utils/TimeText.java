@@ -0,0 +1,93 @@
+package cn.socialclock.utils;
+
+/**
+ * @author mapler
+ * Precomputed text of clock times, instead of String.format("%02d"), which parses its pattern
+ * and boxes the value on each call.
+ * "00" to "59" and "00:00" to "23:59" are built once and shared.
+ */
+public final class TimeText {
+
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOURS_PER_DAY = 24;
+
+    // "00" to "59", also hours
+    private static final String[] TWO_DIGITS = new String[MINUTES_PER_HOUR];
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = new String(new char[] {(char) ('0' + i / 10), (char) ('0' + i % 10)});
+        }
+    }
+
+    /**
+     * "HH:mm" of each minute of the day, built on first use
+     */
+    private static final class HourMinuteTable {
+        private static final String[] HOUR_MINUTES = new String[HOURS_PER_DAY * MINUTES_PER_HOUR];
+
+        static {
+            for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+                for (int minute = 0; minute < MINUTES_PER_HOUR; minute++) {
+                    HOUR_MINUTES[hour * MINUTES_PER_HOUR + minute] = TWO_DIGITS[hour] + ":" + TWO_DIGITS[minute];
+                }
+            }
+        }
+    }
+
+    private TimeText() {
+    }
+
+    /**
+     * two digits text of an hour, minute or second
+     * @param value int 0 to 59
+     * @return String ex. "07"
+     */
+    public static String twoDigits(int value) {
+        if (value < 0 || value >= TWO_DIGITS.length) {
+            throw new IllegalArgumentException("Not a clock value: " + value);
+        }
+        return TWO_DIGITS[value];
+    }
+
+    /**
+     * text of a clock time
+     * @param hour int 0 to 23
+     * @param minute int 0 to 59
+     * @return String ex. "07:05"
+     */
+    public static String hourMinute(int hour, int minute) {
+        if (hour < 0 || hour >= HOURS_PER_DAY || minute < 0 || minute >= MINUTES_PER_HOUR) {
+            throw new IllegalArgumentException("Not a clock time: " + hour + ":" + minute);
+        }
+        return HourMinuteTable.HOUR_MINUTES[hour * MINUTES_PER_HOUR + minute];
+    }
+
+    /**
+     * append two digits of an hour, minute or second, without allocating if the builder has room
+     * @param builder StringBuilder
+     * @param value int 0 to 59
+     * @return the builder
+     */
+    public static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+        if (value < 0 || value >= TWO_DIGITS.length) {
+            throw new IllegalArgumentException("Not a clock value: " + value);
+        }
+        return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * append "HH:mm", without allocating if the builder has room
+     * @param builder StringBuilder
+     * @param hour int 0 to 23
+     * @param minute int 0 to 59
+     * @return the builder
+     */
+    public static StringBuilder appendHourMinute(StringBuilder builder, int hour, int minute) {
+        if (hour >= HOURS_PER_DAY) {
+            throw new IllegalArgumentException("Not a clock hour: " + hour);
+        }
+        appendTwoDigits(builder, hour);
+        return appendTwoDigits(builder.append(':'), minute);
+    }
+}
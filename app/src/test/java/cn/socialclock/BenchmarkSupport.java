@@ -0,0 +1,88 @@
+package cn.socialclock;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * @author mapler
+ * Timing and allocation counts for the *Benchmark classes, which run only with -Pbenchmark and print what they measure.
+ * Results vary by machine and JVM, so no test asserts on them.
+ */
+public final class BenchmarkSupport {
+
+    // rounds run before the measured one, so the JIT has compiled the code
+    private static final int WARM_UP_ROUNDS = 3;
+
+    /**
+     * One measured piece of work
+     */
+    public interface Task {
+        /**
+         * @return a value derived from the results, summed so the work is not optimized away
+         */
+        long run() throws Exception;
+    }
+
+    private long check;
+
+    /**
+     * nanos of one run of a repeatable task, after warm up rounds
+     * @param task Task
+     * @return long nanos
+     */
+    public long time(Task task) throws Exception {
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            check += task.run();
+        }
+        return timeOnce(task);
+    }
+
+    /**
+     * nanos of one run of a task which can not be repeated, ex. inserting rows
+     * @param task Task
+     * @return long nanos
+     */
+    public long timeOnce(Task task) throws Exception {
+        long start = System.nanoTime();
+        check += task.run();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * heap bytes allocated by this thread in one run of a task, after warm up rounds
+     * counted with the allocated bytes of the thread, HotSpot only
+     * @param task Task
+     * @return long bytes, -1 if the JVM does not count them
+     */
+    public long allocatedBytes(Task task) throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            check += task.run();
+        }
+        long bytes = threadBean.getThreadAllocatedBytes(threadId);
+        check += task.run();
+        return threadBean.getThreadAllocatedBytes(threadId) - bytes;
+    }
+
+    /**
+     * print one result line, with the sum of task results so it is used
+     * @param line String
+     */
+    public void report(String line) {
+        System.out.println(line + " (" + check % 10 + ")");
+    }
+
+    public static long perSecond(int count, long nanos) {
+        return count * 1000000000L / Math.max(nanos, 1);
+    }
+
+    public static long microsPer(int count, long nanos) {
+        return nanos / count / 1000;
+    }
+}
@@ -0,0 +1,90 @@
+package cn.socialclock.db;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.socialclock.BenchmarkSupport;
+import cn.socialclock.model.AlarmEvent;
+
+/**
+ * @author mapler
+ * Time to write and read the backup record stream of 100k events, printed to compare runs.
+ * Run with -Pbenchmark.
+ */
+public class AlarmEventBackupBenchmark {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+
+    @Test
+    public void hundredThousandEvents() throws Exception {
+        BenchmarkSupport benchmark = new BenchmarkSupport();
+        final List<AlarmEvent> alarmEvents = createEvents(100000);
+        final byte[] bytes = writeAll(alarmEvents);
+
+        long writeNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() throws IOException {
+                return writeAll(alarmEvents).length;
+            }
+        });
+        long readNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() throws IOException {
+                return readAll(bytes);
+            }
+        });
+
+        benchmark.report("backup of 100k events: " + bytes.length + " bytes, write " + writeNanos / 1000000
+                + " ms, " + BenchmarkSupport.perSecond(alarmEvents.size(), writeNanos) + " events/s, read "
+                + readNanos / 1000000 + " ms, " + BenchmarkSupport.perSecond(alarmEvents.size(), readNanos)
+                + " events/s");
+    }
+
+    /**
+     * one event a day at about 7:00 with a uuid like id, one user, some snoozes
+     */
+    private static List<AlarmEvent> createEvents(int count) {
+        List<AlarmEvent> alarmEvents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long startAt = START + i * DAY + (i % 13) * 60000L;
+            alarmEvents.add(new AlarmEvent(
+                    String.format("%08x-0000-4000-8000-%012x", i, i * 7919L),
+                    "1234567", "mapler",
+                    startAt, startAt + (i % 5) * 300000L + 1000, i % 4,
+                    i % 3 == 0 ? startAt + 3600000L : AlarmEvent.NO_TIME,
+                    AlarmEvent.NO_TIME, 0));
+        }
+        return alarmEvents;
+    }
+
+    private static byte[] writeAll(List<AlarmEvent> alarmEvents) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AlarmEventBackup.Writer writer = new AlarmEventBackup.Writer(output);
+        writer.writeHeader();
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            writer.write(alarmEvent);
+        }
+        writer.writeEnd();
+        return output.toByteArray();
+    }
+
+    /**
+     * @return snooze total of the events read, so the reads are used
+     */
+    private static long readAll(byte[] bytes) throws IOException {
+        AlarmEventBackup.Reader reader = new AlarmEventBackup.Reader(new ByteArrayInputStream(bytes));
+        reader.readHeader();
+        long snoozeTotal = 0;
+        AlarmEvent alarmEvent;
+        while ((alarmEvent = reader.read()) != null) {
+            snoozeTotal += alarmEvent.getSnoozeTimes();
+        }
+        return snoozeTotal;
+    }
+}
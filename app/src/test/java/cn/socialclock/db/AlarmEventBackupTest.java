@@ -0,0 +1,145 @@
+package cn.socialclock.db;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cn.socialclock.model.AlarmEvent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mapler
+ * Round trip of the backup record stream, and its size for 100k events.
+ * Its time is measured by AlarmEventBackupBenchmark.
+ */
+public class AlarmEventBackupTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+
+    @Test
+    public void roundTripKeepsEveryField() throws IOException {
+        List<AlarmEvent> alarmEvents = Arrays.asList(
+                // finished, synced
+                new AlarmEvent("a1", "u1", "mapler", START, START + 60000, 2, START + DAY, AlarmEvent.NO_TIME, 3),
+                // not finished, no user name
+                new AlarmEvent("a2", "u1", null, START + DAY, AlarmEvent.NO_TIME, 0,
+                        AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0),
+                // older than the previous one, so a negative delta, and deleted
+                new AlarmEvent("a3", "u2", "\u65e9\u8d77", START - DAY, START - DAY + 1000, 1,
+                        AlarmEvent.NO_TIME, START, 0),
+                // no start time and no user
+                new AlarmEvent("a4", null, null, AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0,
+                        AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0));
+
+        List<AlarmEvent> read = readAll(writeAll(alarmEvents));
+
+        assertEquals(alarmEvents.size(), read.size());
+        for (int i = 0; i < alarmEvents.size(); i++) {
+            assertSameFields(alarmEvents.get(i), read.get(i));
+            // row versions are not exported
+            assertEquals(0, read.get(i).getRowVersion());
+        }
+    }
+
+    @Test
+    public void emptyBackupHasNoEvents() throws IOException {
+        assertTrue(readAll(writeAll(new ArrayList<AlarmEvent>())).isEmpty());
+    }
+
+    @Test
+    public void rejectsOtherStreams() {
+        try {
+            readAll("not a backup".getBytes());
+            fail("read a stream which is not a backup");
+        } catch (IOException expected) {
+            // not an alarm event backup
+        }
+    }
+
+    @Test
+    public void truncatedStreamFails() throws IOException {
+        byte[] bytes = writeAll(createEvents(10));
+        try {
+            readAll(Arrays.copyOf(bytes, bytes.length - 5));
+            fail("read a truncated backup");
+        } catch (EOFException expected) {
+            // ends in the last record
+        }
+    }
+
+    @Test
+    public void hundredThousandEvents() throws IOException {
+        List<AlarmEvent> alarmEvents = createEvents(100000);
+
+        byte[] bytes = writeAll(alarmEvents);
+        List<AlarmEvent> read = readAll(bytes);
+
+        assertEquals(alarmEvents.size(), read.size());
+        for (int i = 0; i < alarmEvents.size(); i++) {
+            assertSameFields(alarmEvents.get(i), read.get(i));
+        }
+        double bytesPerEvent = (double) bytes.length / alarmEvents.size();
+        // a 36 char uuid is most of it, times are small deltas and users are refs
+        assertTrue("bytes per event " + bytesPerEvent, bytesPerEvent < 56);
+    }
+
+    /**
+     * one event a day at about 7:00 with a uuid like id, one user, some snoozes
+     */
+    private static List<AlarmEvent> createEvents(int count) {
+        List<AlarmEvent> alarmEvents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long startAt = START + i * DAY + (i % 13) * 60000L;
+            alarmEvents.add(new AlarmEvent(
+                    String.format("%08x-0000-4000-8000-%012x", i, i * 7919L),
+                    "1234567", "mapler",
+                    startAt, startAt + (i % 5) * 300000L + 1000, i % 4,
+                    i % 3 == 0 ? startAt + 3600000L : AlarmEvent.NO_TIME,
+                    AlarmEvent.NO_TIME, 0));
+        }
+        return alarmEvents;
+    }
+
+    private static byte[] writeAll(List<AlarmEvent> alarmEvents) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AlarmEventBackup.Writer writer = new AlarmEventBackup.Writer(output);
+        writer.writeHeader();
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            writer.write(alarmEvent);
+        }
+        writer.writeEnd();
+        return output.toByteArray();
+    }
+
+    private static List<AlarmEvent> readAll(byte[] bytes) throws IOException {
+        AlarmEventBackup.Reader reader = new AlarmEventBackup.Reader(new ByteArrayInputStream(bytes));
+        reader.readHeader();
+        List<AlarmEvent> alarmEvents = new ArrayList<>();
+        AlarmEvent alarmEvent;
+        while ((alarmEvent = reader.read()) != null) {
+            alarmEvents.add(alarmEvent);
+        }
+        return alarmEvents;
+    }
+
+    private static void assertSameFields(AlarmEvent expected, AlarmEvent actual) {
+        assertEquals(expected.getEventId(), actual.getEventId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getUserName(), actual.getUserName());
+        assertEquals(expected.getStartAtMillis(), actual.getStartAtMillis());
+        assertEquals(expected.getEndAtMillis(), actual.getEndAtMillis());
+        assertEquals(expected.getSnoozeTimes(), actual.getSnoozeTimes());
+        assertEquals(expected.getSyncAtMillis(), actual.getSyncAtMillis());
+        assertEquals(expected.getDeletedAtMillis(), actual.getDeletedAtMillis());
+    }
+}
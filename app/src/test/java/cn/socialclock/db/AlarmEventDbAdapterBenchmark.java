@@ -0,0 +1,290 @@
+package cn.socialclock.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import cn.socialclock.BenchmarkSupport;
+import cn.socialclock.BuildConfig;
+import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.utils.EventIdGenerator;
+
+/**
+ * @author mapler
+ * Time and allocations of reads and writes of AlarmEventDbAdapter on a real SQLite file, printed to compare runs.
+ * Run with -Pbenchmark.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class AlarmEventDbAdapterBenchmark {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+
+    // finished rows with their times as text, the columns of alarm_event before epoch millis
+    private static final String OLD_ROWS_QUERY = "" +
+            "SELECT event_id, user_id, user_name," +
+            " strftime('%Y-%m-%d %H:%M:%S', start_at / 1000, 'unixepoch', 'localtime')," +
+            " strftime('%Y-%m-%d %H:%M:%S', end_at / 1000, 'unixepoch', 'localtime')," +
+            " strftime('%Y-%m-%d %H:%M:%S', sync_at / 1000, 'unixepoch', 'localtime')," +
+            " snooze_times" +
+            " FROM alarm_event WHERE end_at IS NOT NULL AND deleted_at IS NULL";
+
+    private AlarmEventDatabaseHelper dbHelper;
+    private AlarmEventDbAdapter dbAdapter;
+    private BenchmarkSupport benchmark;
+
+    @Before
+    public void setUp() {
+        dbHelper = new AlarmEventDatabaseHelper(RuntimeEnvironment.application, null, DbConstants.DB_VERSION);
+        dbAdapter = new AlarmEventDbAdapter(dbHelper);
+        benchmark = new BenchmarkSupport();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void sharedHandleAgainstOpenPerQuery() throws Exception {
+        final List<AlarmEvent> alarmEvents = createEvents(3000, 0);
+        dbAdapter.insertAll(alarmEvents);
+        final int count = 200;
+
+        long sharedNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long found = 0;
+                for (int i = 0; i < count; i++) {
+                    found += dbAdapter.getByEventId(alarmEvents.get(i).getEventId()) != null ? 1 : 0;
+                }
+                return found;
+            }
+        });
+        long openNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return readOpenPerQuery(alarmEvents, count);
+            }
+        });
+        long insertNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long inserted = 0;
+                for (int i = 0; i < count; i++) {
+                    inserted += dbAdapter.insertIfAbsent(new AlarmEvent("new" + i, "u1", "mapler", START + i * DAY));
+                }
+                return inserted;
+            }
+        });
+
+        benchmark.report("lookup by id in " + alarmEvents.size() + " rows: shared handle "
+                + BenchmarkSupport.microsPer(count, sharedNanos) + " us, open per query "
+                + BenchmarkSupport.microsPer(count, openNanos) + " us, insert "
+                + BenchmarkSupport.microsPer(count, insertNanos) + " us per op");
+    }
+
+    @Test
+    public void batchWritesAgainstSingleRows() throws Exception {
+        // one transaction per row, the alarm path, as the baseline
+        final List<AlarmEvent> single = createEvents(1000, 200000);
+        long singleNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long inserted = 0;
+                for (AlarmEvent alarmEvent : single) {
+                    inserted += dbAdapter.insertIfAbsent(alarmEvent);
+                }
+                return inserted;
+            }
+        });
+        benchmark.report("insertIfAbsent: " + BenchmarkSupport.perSecond(single.size(), singleNanos) + " rows/s");
+
+        for (int count : new int[] {10000, 100000}) {
+            final List<AlarmEvent> alarmEvents = createEvents(count, 0);
+            final List<String> eventIds = new ArrayList<>(count);
+            for (AlarmEvent alarmEvent : alarmEvents) {
+                eventIds.add(alarmEvent.getEventId());
+            }
+            long insertNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+                @Override
+                public long run() {
+                    return dbAdapter.insertAll(alarmEvents);
+                }
+            });
+            long upsertNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+                @Override
+                public long run() {
+                    return dbAdapter.upsertAll(alarmEvents);
+                }
+            });
+            long deleteNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+                @Override
+                public long run() {
+                    return dbAdapter.deleteAll(eventIds);
+                }
+            });
+            benchmark.report(count + " rows: insertAll " + BenchmarkSupport.perSecond(count, insertNanos)
+                    + " rows/s, upsertAll " + BenchmarkSupport.perSecond(count, upsertNanos)
+                    + " rows/s, deleteAll " + BenchmarkSupport.perSecond(count, deleteNanos) + " rows/s");
+        }
+    }
+
+    @Test
+    public void lazyCursorAgainstCalendarDecode() throws Exception {
+        int count = 50000;
+        dbAdapter.insertAll(createEvents(count, 0));
+        BenchmarkSupport.Task cursorColumns = new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return sumColumns();
+            }
+        };
+        BenchmarkSupport.Task calendarDecode = new BenchmarkSupport.Task() {
+            @Override
+            public long run() throws ParseException {
+                return sumCalendars();
+            }
+        };
+
+        long cursorBytes = benchmark.allocatedBytes(cursorColumns);
+        long calendarBytes = benchmark.allocatedBytes(calendarDecode);
+        long cursorNanos = benchmark.time(cursorColumns);
+        long calendarNanos = benchmark.time(calendarDecode);
+        benchmark.report(count + " rows: cursor columns " + cursorBytes / count + " bytes and "
+                + cursorNanos / count + " ns per row, text columns to Calendars "
+                + calendarBytes / count + " bytes and "
+                + calendarNanos / count + " ns per row");
+    }
+
+    /**
+     * start, end and snooze times read as columns of each finished row
+     */
+    private long sumColumns() {
+        long sum = 0;
+        AlarmEventCursor cursor = dbAdapter.query(new AlarmEventCriteria().finished().notDeleted());
+        try {
+            while (cursor.moveToNext()) {
+                sum += cursor.getEndAtMillis() - cursor.getStartAtMillis() + cursor.getSnoozeTimes();
+            }
+        } finally {
+            cursor.close();
+        }
+        return sum;
+    }
+
+    /**
+     * same sum as rows were read before the cursor view: every column of the row,
+     * times as text parsed by one SimpleDateFormat into a Calendar each, like the old stringToCalendar
+     */
+    private long sumCalendars() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        long sum = 0;
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery(OLD_ROWS_QUERY, null);
+        try {
+            while (cursor.moveToNext()) {
+                Calendar[] calendars = new Calendar[3];
+                for (int column = 0; column < calendars.length; column++) {
+                    String text = cursor.getString(3 + column);
+                    if (text != null) {
+                        calendars[column] = Calendar.getInstance();
+                        calendars[column].setTime(format.parse(text));
+                    }
+                }
+                sum += calendars[1].getTimeInMillis() - calendars[0].getTimeInMillis() + cursor.getInt(6)
+                        + cursor.getString(0).length() + cursor.getString(2).length();
+            }
+        } finally {
+            cursor.close();
+        }
+        return sum;
+    }
+
+    @Test
+    public void insertsByIdKind() throws Exception {
+        int count = 50000;
+        final List<AlarmEvent> uuidEvents = new ArrayList<>(count);
+        final List<AlarmEvent> generatedEvents = new ArrayList<>(count);
+        for (AlarmEvent alarmEvent : createEvents(count, 0)) {
+            uuidEvents.add(withEventId(alarmEvent, UUID.randomUUID().toString()));
+            generatedEvents.add(withEventId(alarmEvent, EventIdGenerator.next()));
+        }
+
+        long uuidNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return dbAdapter.insertAll(uuidEvents);
+            }
+        });
+        dbHelper.getWritableDatabase().execSQL("DELETE FROM alarm_event");
+        long generatedNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return dbAdapter.insertAll(generatedEvents);
+            }
+        });
+        benchmark.report(count + " rows: random UUID ids " + BenchmarkSupport.perSecond(count, uuidNanos)
+                + " rows/s, generated ids " + BenchmarkSupport.perSecond(count, generatedNanos) + " rows/s");
+    }
+
+    private static AlarmEvent withEventId(AlarmEvent alarmEvent, String eventId) {
+        return new AlarmEvent(eventId, alarmEvent.getUserId(), alarmEvent.getUserName(),
+                alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(), alarmEvent.getSnoozeTimes(),
+                alarmEvent.getSyncAtMillis(), alarmEvent.getDeletedAtMillis(), 0);
+    }
+
+    /**
+     * a new helper opened and closed around each lookup, as the adapter did before the shared handle
+     */
+    private static long readOpenPerQuery(List<AlarmEvent> alarmEvents, int count) {
+        long found = 0;
+        for (int i = 0; i < count; i++) {
+            AlarmEventDatabaseHelper openHelper = new AlarmEventDatabaseHelper(
+                    RuntimeEnvironment.application, null, DbConstants.DB_VERSION);
+            try {
+                SQLiteDatabase db = openHelper.getWritableDatabase();
+                Cursor cursor = db.query("alarm_event", AlarmEventDbAdapter.COLUMNS, "event_id=?",
+                        new String[] {alarmEvents.get(i).getEventId()}, null, null, null);
+                try {
+                    found += cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                openHelper.close();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * one finished event a day from START plus firstDay
+     */
+    private static List<AlarmEvent> createEvents(int count, int firstDay) {
+        List<AlarmEvent> alarmEvents = new ArrayList<>(count);
+        for (int i = firstDay; i < firstDay + count; i++) {
+            long startAt = START + i * DAY;
+            alarmEvents.add(new AlarmEvent(String.format("e%08d", i), "u1", "mapler",
+                    startAt, startAt + (i % 7) * 60000L + 1000, i % 4,
+                    AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0));
+        }
+        return alarmEvents;
+    }
+}
@@ -0,0 +1,256 @@
+package cn.socialclock.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cn.socialclock.BuildConfig;
+import cn.socialclock.model.AlarmEvent;
+import cn.socialclock.utils.EventIdGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mapler
+ * Reads and writes of AlarmEventDbAdapter on a real SQLite file.
+ * Their time is measured by AlarmEventDbAdapterBenchmark.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class AlarmEventDbAdapterTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+    private static final String BASE32 = "0123456789abcdefghjkmnpqrstvwxyz";
+
+    private AlarmEventDatabaseHelper dbHelper;
+    private AlarmEventDbAdapter dbAdapter;
+
+    @Before
+    public void setUp() {
+        dbHelper = new AlarmEventDatabaseHelper(RuntimeEnvironment.application, null, DbConstants.DB_VERSION);
+        dbAdapter = new AlarmEventDbAdapter(dbHelper);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void adaptersShareOneOpenHandle() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        AlarmEventDbAdapter otherAdapter = new AlarmEventDbAdapter(dbHelper);
+        dbAdapter.insertAll(createEvents(10, 0));
+        assertEquals(1, dbAdapter.insertIfAbsent(new AlarmEvent("new", "u1", "mapler", START)));
+        assertNotNull(otherAdapter.getByEventId("new"));
+        assertEquals(1, otherAdapter.delete("new"));
+        // no adapter call closed or reopened the handle
+        assertTrue(db.isOpen());
+        assertSame(db, dbHelper.getWritableDatabase());
+    }
+
+    @Test
+    public void rangeAndFinishedReads() {
+        List<AlarmEvent> alarmEvents = createEvents(30, 0);
+        // not finished
+        alarmEvents.add(new AlarmEvent("open", "u1", "mapler", START + 10 * DAY + 1));
+        dbAdapter.insertAll(alarmEvents);
+
+        List<AlarmEvent> week = dbAdapter.findBetween(
+                AlarmEvent.toCalendar(START + 7 * DAY), AlarmEvent.toCalendar(START + 14 * DAY));
+        assertEquals(8, week.size());
+        // newest first, the end of the range is excluded
+        assertEquals(START + 13 * DAY, week.get(0).getStartAtMillis());
+        assertEquals(START + 7 * DAY, week.get(week.size() - 1).getStartAtMillis());
+
+        List<AlarmEvent> finished = dbAdapter.findFinished();
+        assertEquals(30, finished.size());
+        for (AlarmEvent alarmEvent : finished) {
+            assertTrue(alarmEvent.isFinished());
+        }
+    }
+
+    @Test
+    public void batchWritesCountRows() {
+        List<AlarmEvent> alarmEvents = createEvents(1000, 0);
+        assertEquals(1000, dbAdapter.insertAll(alarmEvents, 300));
+        // existing event ids are skipped
+        assertEquals(0, dbAdapter.insertAll(alarmEvents));
+        assertEquals(1000, dbAdapter.upsertAll(alarmEvents, 300));
+        assertEquals(1000, countRows());
+
+        List<String> eventIds = new ArrayList<>();
+        for (AlarmEvent alarmEvent : alarmEvents.subList(0, 600)) {
+            eventIds.add(alarmEvent.getEventId());
+        }
+        assertEquals(600, dbAdapter.deleteAll(eventIds, 250));
+        assertEquals(400, countRows());
+    }
+
+    @Test
+    public void batchWritesKeepStats() {
+        List<AlarmEvent> alarmEvents = createEvents(100, 0);
+        dbAdapter.insertAll(alarmEvents.subList(0, 60), 25);
+        // changed snoozes of some, the rest inserted, one soft deleted
+        List<AlarmEvent> upserted = new ArrayList<>();
+        for (AlarmEvent alarmEvent : alarmEvents.subList(40, 100)) {
+            upserted.add(new AlarmEvent(alarmEvent.getEventId(), alarmEvent.getUserId(), alarmEvent.getUserName(),
+                    alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(), alarmEvent.getSnoozeTimes() + 2,
+                    AlarmEvent.NO_TIME, alarmEvent.getEventId().equals("e00000050") ? START : AlarmEvent.NO_TIME,
+                    0));
+        }
+        dbAdapter.upsertAll(upserted, 25);
+        List<String> eventIds = new ArrayList<>();
+        for (AlarmEvent alarmEvent : alarmEvents.subList(0, 30)) {
+            eventIds.add(alarmEvent.getEventId());
+        }
+        dbAdapter.deleteAll(eventIds, 25);
+
+        List<String> maintained = readStats();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            AlarmStatsDbAdapter.rebuild(db, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        assertEquals(readStats(), maintained);
+    }
+
+    /**
+     * periods with events in alarm_stats, emptied ones are left by removes and dropped by a rebuild
+     */
+    private List<String> readStats() {
+        List<String> stats = new ArrayList<>();
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery("SELECT period_type, period_start,"
+                + " finished_count, snooze_total, late_total FROM alarm_stats WHERE finished_count > 0"
+                + " ORDER BY period_type, period_start", null);
+        try {
+            while (cursor.moveToNext()) {
+                stats.add(cursor.getInt(0) + " " + cursor.getLong(1) + ": " + cursor.getLong(2) + ", "
+                        + cursor.getLong(3) + ", " + cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(stats.size() > 0);
+        return stats;
+    }
+
+    @Test
+    public void cursorDecodesColumnsOnRead() {
+        List<AlarmEvent> alarmEvents = createEvents(50, 0);
+        // not finished, left out by the criteria
+        alarmEvents.add(new AlarmEvent("open", "u1", "mapler", START + 60 * DAY));
+        dbAdapter.insertAll(alarmEvents);
+
+        AlarmEventCursor cursor = dbAdapter.query(new AlarmEventCriteria()
+                .finished()
+                .notDeleted()
+                .oldestFirst()
+                .columns(AlarmEventDbAdapter.COLUMN_START_AT, AlarmEventDbAdapter.COLUMN_END_AT,
+                        AlarmEventDbAdapter.COLUMN_SNOOZE_TIMES));
+        try {
+            assertEquals(50, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                AlarmEvent expected = alarmEvents.get(i);
+                assertEquals(expected.getEventId(), cursor.getEventId());
+                assertEquals(expected.getStartAtMillis(), cursor.getStartAtMillis());
+                assertEquals(expected.getEndAtMillis(), cursor.getEndAtMillis());
+                assertEquals(expected.getSnoozeTimes(), cursor.getSnoozeTimes());
+                assertTrue(cursor.isFinished());
+                assertEquals(expected.getStartAtMillis(), cursor.getStartAt().getTimeInMillis());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void generatedIdsFillFewerPages() {
+        int count = 20000;
+        // random ids of the generated length and alphabet, seeded so the page counts repeat
+        Random random = new Random(42);
+        List<AlarmEvent> randomEvents = new ArrayList<>(count);
+        List<AlarmEvent> generatedEvents = new ArrayList<>(count);
+        for (AlarmEvent alarmEvent : createEvents(count, 0)) {
+            char[] id = new char[16];
+            for (int c = 0; c < id.length; c++) {
+                id[c] = BASE32.charAt(random.nextInt(BASE32.length()));
+            }
+            randomEvents.add(withEventId(alarmEvent, new String(id)));
+            generatedEvents.add(withEventId(alarmEvent, EventIdGenerator.next()));
+        }
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long emptyPages = pageCount();
+        assertEquals(count, dbAdapter.insertAll(randomEvents));
+        long randomPages = pageCount() - emptyPages;
+        db.execSQL("DELETE FROM alarm_event");
+        db.execSQL("VACUUM");
+        emptyPages = pageCount();
+        assertEquals(count, dbAdapter.insertAll(generatedEvents));
+        long generatedPages = pageCount() - emptyPages;
+
+        // time ordered ids append to the event_id index and fill its pages, random ones split pages all over it
+        assertTrue("generated ids " + generatedPages + " pages, random ids " + randomPages + " pages",
+                generatedPages < randomPages);
+    }
+
+    private long pageCount() {
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery("PRAGMA page_count", null);
+        try {
+            cursor.moveToNext();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static AlarmEvent withEventId(AlarmEvent alarmEvent, String eventId) {
+        return new AlarmEvent(eventId, alarmEvent.getUserId(), alarmEvent.getUserName(),
+                alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(), alarmEvent.getSnoozeTimes(),
+                alarmEvent.getSyncAtMillis(), alarmEvent.getDeletedAtMillis(), 0);
+    }
+
+    /**
+     * one finished event a day from START plus firstDay
+     */
+    private static List<AlarmEvent> createEvents(int count, int firstDay) {
+        List<AlarmEvent> alarmEvents = new ArrayList<>(count);
+        for (int i = firstDay; i < firstDay + count; i++) {
+            long startAt = START + i * DAY;
+            alarmEvents.add(new AlarmEvent(String.format("e%08d", i), "u1", "mapler",
+                    startAt, startAt + (i % 7) * 60000L + 1000, i % 4,
+                    AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0));
+        }
+        return alarmEvents;
+    }
+
+    private int countRows() {
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery("SELECT count(*) FROM alarm_event", null);
+        try {
+            cursor.moveToNext();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cn.socialclock.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.socialclock.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mapler
+ * Guard of the hot read paths: history listing, lookup by id, finished filtering and purge.
+ * Runs EXPLAIN QUERY PLAN on the SQL the adapters build and fails when a query
+ * scans a table or an index it does not name, or sorts in a temp B-tree.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class QueryPlanTest {
+
+    private AlarmEventDatabaseHelper dbHelper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        dbHelper = new AlarmEventDatabaseHelper(RuntimeEnvironment.application, null, DbConstants.DB_VERSION);
+        db = dbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void hotQueriesUseIndexes() {
+        List<HotQuery> hotQueries = new ArrayList<>();
+        hotQueries.addAll(AlarmEventDbAdapter.getHotQueries());
+        hotQueries.addAll(AlarmStatsDbAdapter.getHotQueries());
+        List<String> problems = new ArrayList<>();
+        for (HotQuery hotQuery : hotQueries) {
+            problems.addAll(findProblems(hotQuery));
+        }
+        assertEquals(new ArrayList<String>(), problems);
+    }
+
+    @Test
+    public void coveringIndexScanIsAFullScan() {
+        // walks the whole (start_at, event_id) index, "USING COVERING INDEX" must not hide it
+        HotQuery scan = new HotQuery("start_at by event id like", "alarm_event", new String[] {"start_at"},
+                "event_id LIKE ?", new String[] {"a%"}, null, null);
+        assertFalse(findProblems(scan).isEmpty());
+    }
+
+    @Test
+    public void scanOfAnotherIndexIsAFullScan() {
+        HotQuery scan = new HotQuery("all events", "alarm_event", AlarmEventDbAdapter.COLUMNS,
+                null, null, "start_at DESC,event_id DESC", "21").scanning("alarm_event_finished_idx");
+        assertFalse(findProblems(scan).isEmpty());
+    }
+
+    @Test
+    public void dateRangeUsesStartAtIndex() {
+        assertUsesIndex(findHotQuery("events between"), "alarm_event_start_at_idx");
+    }
+
+    @Test
+    public void finishedEventsUseFinishedIndex() {
+        assertUsesIndex(findHotQuery("finished events"), "alarm_event_finished_idx");
+        assertUsesIndex(findHotQuery("history first page"), "alarm_event_finished_idx");
+    }
+
+    private static HotQuery findHotQuery(String name) {
+        for (HotQuery hotQuery : AlarmEventDbAdapter.getHotQueries()) {
+            if (hotQuery.name.equals(name)) {
+                return hotQuery;
+            }
+        }
+        throw new AssertionError("no hot query " + name);
+    }
+
+    private void assertUsesIndex(HotQuery hotQuery, String index) {
+        List<String> details = explain(hotQuery);
+        for (String detail : details) {
+            if (detail.endsWith(" INDEX " + index) || detail.contains(" INDEX " + index + " ")) {
+                return;
+            }
+        }
+        fail(hotQuery.name + " does not use " + index + ": " + details);
+    }
+
+    /**
+     * "SCAN TABLE t" before SQLite 3.36, "SCAN t" since, with or without "USING [COVERING] INDEX i"
+     * a scan is allowed only of the index the query names
+     */
+    private List<String> findProblems(HotQuery hotQuery) {
+        List<String> problems = new ArrayList<>();
+        for (String detail : explain(hotQuery)) {
+            boolean allowedScan = hotQuery.scannedIndex != null
+                    && (detail.endsWith(" INDEX " + hotQuery.scannedIndex)
+                    || detail.contains(" INDEX " + hotQuery.scannedIndex + " "));
+            if ((detail.startsWith("SCAN") && !allowedScan) || detail.contains("TEMP B-TREE")) {
+                problems.add(hotQuery.name + ": " + detail + " in " + hotQuery.sql);
+            }
+        }
+        return problems;
+    }
+
+    private List<String> explain(HotQuery hotQuery) {
+        List<String> details = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + hotQuery.sql, hotQuery.args);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+            return details;
+        } finally {
+            cursor.close();
+        }
+    }
+}
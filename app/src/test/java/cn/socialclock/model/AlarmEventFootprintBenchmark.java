@@ -0,0 +1,90 @@
+package cn.socialclock.model;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import cn.socialclock.BenchmarkSupport;
+
+/**
+ * @author mapler
+ * Heap bytes allocated per AlarmEvent, millis fields against the Calendar fields it replaced,
+ * and per event of a history snapshot, printed to compare runs. Run with -Pbenchmark.
+ */
+public class AlarmEventFootprintBenchmark {
+
+    private static final int COUNT = 50000;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+
+    @Test
+    public void millisEventAgainstCalendarFields() throws Exception {
+        BenchmarkSupport benchmark = new BenchmarkSupport();
+        long eventBytes = benchmark.allocatedBytes(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return createEvents().length;
+            }
+        });
+        long calendarBytes = benchmark.allocatedBytes(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return createCalendars().length;
+            }
+        });
+
+        benchmark.report("alarm event: " + eventBytes / COUNT + " bytes, with Calendar fields: "
+                + calendarBytes / COUNT + " bytes");
+    }
+
+    @Test
+    public void historyColumns() throws Exception {
+        BenchmarkSupport benchmark = new BenchmarkSupport();
+        final AlarmEvent[] alarmEvents = createEvents();
+        long bytes = benchmark.allocatedBytes(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                return buildHistory(alarmEvents).size();
+            }
+        });
+
+        benchmark.report("history of " + COUNT + " events: " + bytes + " bytes, " + bytes / COUNT + " bytes per event");
+    }
+
+    /**
+     * one event a day with shared id and user strings, so only the event objects count
+     */
+    private static AlarmEvent[] createEvents() {
+        AlarmEvent[] alarmEvents = new AlarmEvent[COUNT];
+        for (int i = 0; i < alarmEvents.length; i++) {
+            long startAt = START + i * DAY;
+            alarmEvents[i] = new AlarmEvent("a", "1234567", "mapler", startAt, startAt + 300000L, i % 4,
+                    startAt + 3600000L, AlarmEvent.NO_TIME, 1);
+        }
+        return alarmEvents;
+    }
+
+    /**
+     * start, end and sync Calendars of each event, the fields before epoch millis
+     */
+    private static Calendar[][] createCalendars() {
+        Calendar[][] calendars = new Calendar[COUNT][];
+        for (int i = 0; i < calendars.length; i++) {
+            long startAt = START + i * DAY;
+            calendars[i] = new Calendar[] {
+                    AlarmEvent.toCalendar(startAt),
+                    AlarmEvent.toCalendar(startAt + 300000L),
+                    AlarmEvent.toCalendar(startAt + 3600000L)};
+        }
+        return calendars;
+    }
+
+    private static AlarmHistory buildHistory(AlarmEvent[] alarmEvents) {
+        AlarmHistory.Builder builder = new AlarmHistory.Builder(alarmEvents.length);
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            builder.add(alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(),
+                    alarmEvent.getSnoozeTimes(), alarmEvent.getUserId());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,59 @@
+package cn.socialclock.model;
+
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mapler
+ * Fields of AlarmEvent and AlarmHistory, times as millis and columns trimmed to the event count.
+ * Their allocated bytes are measured by AlarmEventFootprintBenchmark.
+ */
+public class AlarmEventFootprintTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+
+    @Test
+    public void eventHoldsMillisNotCalendars() {
+        for (Field field : AlarmEvent.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            assertTrue(field.getName(), Modifier.isFinal(field.getModifiers()));
+            assertTrue(field.getName() + " " + field.getType(),
+                    field.getType().isPrimitive() || field.getType() == String.class);
+        }
+    }
+
+    @Test
+    public void historyHoldsTrimmedColumns() throws IllegalAccessException {
+        int count = 1000;
+        AlarmHistory.Builder builder = new AlarmHistory.Builder(16);
+        for (int i = 0; i < count; i++) {
+            long startAt = START + i * DAY;
+            builder.add(startAt, startAt + 300000L, i % 4, i % 2 == 0 ? "u1" : "u2");
+        }
+        AlarmHistory history = builder.build();
+
+        for (Field field : AlarmHistory.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().equals("userIds")) {
+                continue;
+            }
+            Class<?> type = field.getType();
+            if (type.isPrimitive()) {
+                continue;
+            }
+            // one array a column, no object per event
+            assertTrue(field.getName() + " " + type, type.isArray() && type.getComponentType().isPrimitive());
+            field.setAccessible(true);
+            assertEquals(field.getName(), count, Array.getLength(field.get(history)));
+        }
+        assertEquals(2, history.getUserIds().length);
+    }
+}
@@ -0,0 +1,94 @@
+package cn.socialclock.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import cn.socialclock.BenchmarkSupport;
+
+/**
+ * @author mapler
+ * Time of a summary by user of 1M events, over AlarmEvent objects against AlarmHistory columns,
+ * in one range and in a range per processor, printed to compare runs. Run with -Pbenchmark.
+ */
+public class AlarmHistoryBenchmark {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+    private static final String[] USER_IDS = {"u1", "u2", null};
+
+    @Test
+    public void eventsAgainstColumns() throws Exception {
+        BenchmarkSupport benchmark = new BenchmarkSupport();
+        final List<AlarmEvent> alarmEvents = createEvents(1000000);
+        final AlarmHistory history = buildHistory(alarmEvents);
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(processors);
+        try {
+            final int userRef = history.findUserRef("u2");
+            long eventsNanos = benchmark.time(new BenchmarkSupport.Task() {
+                @Override
+                public long run() {
+                    return summarizeEvents(alarmEvents, "u2");
+                }
+            });
+            long columnsNanos = benchmark.time(new BenchmarkSupport.Task() {
+                @Override
+                public long run() {
+                    return history.summarize(0, Long.MAX_VALUE, userRef).getLateTotal();
+                }
+            });
+            long parallelNanos = benchmark.time(new BenchmarkSupport.Task() {
+                @Override
+                public long run() throws Exception {
+                    return history.summarize(0, Long.MAX_VALUE, userRef, executor, processors).getLateTotal();
+                }
+            });
+
+            benchmark.report("summary of 1M events by user: event objects " + eventsNanos / 1000 + " us, columns "
+                    + columnsNanos / 1000 + " us, columns in " + processors + " ranges "
+                    + parallelNanos / 1000 + " us");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * one event a day, users in turn, some snoozes and lateness
+     */
+    private static List<AlarmEvent> createEvents(int count) {
+        List<AlarmEvent> alarmEvents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long startAt = START + i * DAY;
+            alarmEvents.add(new AlarmEvent("a" + i, USER_IDS[i % USER_IDS.length], null,
+                    startAt, startAt + (i % 7) * 60000L + 1000, i % 4,
+                    AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0));
+        }
+        return alarmEvents;
+    }
+
+    private static AlarmHistory buildHistory(List<AlarmEvent> alarmEvents) {
+        AlarmHistory.Builder builder = new AlarmHistory.Builder(alarmEvents.size());
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            builder.add(alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(),
+                    alarmEvent.getSnoozeTimes(), alarmEvent.getUserId());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return late total of the events of a user, the loop a summary replaced
+     */
+    private static long summarizeEvents(List<AlarmEvent> alarmEvents, String userId) {
+        long lateTotal = 0;
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            if (userId.equals(alarmEvent.getUserId())) {
+                lateTotal += alarmEvent.getEndAtMillis() - alarmEvent.getStartAtMillis();
+            }
+        }
+        return lateTotal;
+    }
+}
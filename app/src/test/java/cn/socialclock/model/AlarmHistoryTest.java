@@ -0,0 +1,141 @@
+package cn.socialclock.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mapler
+ * Range lookups, user filters and parallel summaries of AlarmHistory,
+ * checked against a plain loop over AlarmEvent objects.
+ * Their time for 1M events is measured by AlarmHistoryBenchmark.
+ */
+public class AlarmHistoryTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+    private static final String[] USER_IDS = {"u1", "u2", null};
+
+    @Test
+    public void indexOfFindsFirstStartedAtOrAfter() {
+        AlarmHistory history = new AlarmHistory.Builder(4)
+                .add(100, 200, 0, "u1")
+                .add(300, 400, 0, "u1")
+                .add(300, 500, 1, "u1")
+                .add(600, 700, 0, "u1")
+                .build();
+
+        assertEquals(0, history.indexOf(0));
+        assertEquals(0, history.indexOf(100));
+        assertEquals(1, history.indexOf(101));
+        assertEquals(1, history.indexOf(300));
+        assertEquals(3, history.indexOf(301));
+        assertEquals(4, history.indexOf(601));
+    }
+
+    @Test
+    public void outOfOrderAddFails() {
+        AlarmHistory.Builder builder = new AlarmHistory.Builder(2).add(200, 300, 0, null);
+        try {
+            builder.add(100, 300, 0, null);
+            fail("added an event started before the last one");
+        } catch (IllegalArgumentException expected) {
+            // events must be in start time order
+        }
+    }
+
+    @Test
+    public void builderGrowsAndStoresUsersOnce() {
+        List<AlarmEvent> alarmEvents = createEvents(1000);
+        AlarmHistory history = buildHistory(alarmEvents, 1);
+
+        assertEquals(alarmEvents.size(), history.size());
+        assertArrayEquals(new Object[] {"u1", "u2"}, history.getUserIds());
+        assertEquals(AlarmHistory.NO_USER, history.findUserRef("u3"));
+        for (int i = 0; i < alarmEvents.size(); i++) {
+            AlarmEvent alarmEvent = alarmEvents.get(i);
+            assertEquals(alarmEvent.getStartAtMillis(), history.getStartAt(i));
+            assertEquals(alarmEvent.getEndAtMillis(), history.getEndAt(i));
+            assertEquals(alarmEvent.getSnoozeTimes(), history.getSnoozeTimes(i));
+            String userId = alarmEvent.getUserId();
+            assertEquals(userId == null ? AlarmHistory.NO_USER : history.findUserRef(userId), history.getUserRef(i));
+        }
+    }
+
+    @Test
+    public void summaryMatchesEventLoop() throws Exception {
+        List<AlarmEvent> alarmEvents = createEvents(50000);
+        AlarmHistory history = buildHistory(alarmEvents, alarmEvents.size());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long[][] ranges = {
+                    {0, Long.MAX_VALUE},
+                    {START + 7 * DAY, START + 14 * DAY},
+                    {START + 1000 * DAY + 1, START + 40000 * DAY},
+                    {START + 20 * DAY, START + 20 * DAY}};
+            for (long[] range : ranges) {
+                for (String userId : new String[] {null, "u2"}) {
+                    int userRef = userId == null ? AlarmHistory.NO_USER : history.findUserRef(userId);
+                    long[] expected = summarizeEvents(alarmEvents, range[0], range[1], userId);
+                    assertSummary(expected, history.summarize(range[0], range[1], userRef));
+                    assertSummary(expected, history.summarize(range[0], range[1], userRef, executor, 4));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * one event a day, users in turn, some snoozes and lateness
+     */
+    private static List<AlarmEvent> createEvents(int count) {
+        List<AlarmEvent> alarmEvents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long startAt = START + i * DAY;
+            alarmEvents.add(new AlarmEvent("a" + i, USER_IDS[i % USER_IDS.length], null,
+                    startAt, startAt + (i % 7) * 60000L + 1000, i % 4,
+                    AlarmEvent.NO_TIME, AlarmEvent.NO_TIME, 0));
+        }
+        return alarmEvents;
+    }
+
+    private static AlarmHistory buildHistory(List<AlarmEvent> alarmEvents, int capacity) {
+        AlarmHistory.Builder builder = new AlarmHistory.Builder(capacity);
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            builder.add(alarmEvent.getStartAtMillis(), alarmEvent.getEndAtMillis(),
+                    alarmEvent.getSnoozeTimes(), alarmEvent.getUserId());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return finished count, snooze total, late total and late max of events started in [from, to)
+     */
+    private static long[] summarizeEvents(List<AlarmEvent> alarmEvents, long from, long to, String userId) {
+        long[] totals = new long[4];
+        for (AlarmEvent alarmEvent : alarmEvents) {
+            long startAt = alarmEvent.getStartAtMillis();
+            if (startAt >= from && startAt < to && (userId == null || userId.equals(alarmEvent.getUserId()))) {
+                long late = alarmEvent.getEndAtMillis() - startAt;
+                totals[0]++;
+                totals[1] += alarmEvent.getSnoozeTimes();
+                totals[2] += late;
+                totals[3] = Math.max(totals[3], late);
+            }
+        }
+        return totals;
+    }
+
+    private static void assertSummary(long[] expected, AlarmHistory.Summary summary) {
+        assertArrayEquals(expected, new long[] {
+                summary.getFinishedCount(), summary.getSnoozeTotal(), summary.getLateTotal(), summary.getLateMax()});
+    }
+}
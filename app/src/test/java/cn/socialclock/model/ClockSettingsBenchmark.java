@@ -0,0 +1,76 @@
+package cn.socialclock.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import cn.socialclock.BenchmarkSupport;
+import cn.socialclock.BuildConfig;
+
+/**
+ * @author mapler
+ * Time of 100k reads from the ClockSettings snapshot against reads from the preferences,
+ * and of 1k edits, printed to compare runs. Run with -Pbenchmark.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ClockSettingsBenchmark {
+
+    private static final String PREFERENCES_NAME = "ClockSettings";
+    private static final int COUNT = 100000;
+
+    private SharedPreferences preferences;
+    private ClockSettings clockSettings;
+
+    @Before
+    public void setUp() {
+        preferences = RuntimeEnvironment.application.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        clockSettings = new ClockSettings(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void snapshotAgainstPreferences() throws Exception {
+        BenchmarkSupport benchmark = new BenchmarkSupport();
+        long snapshotNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long sum = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    sum += clockSettings.getHour() + clockSettings.getMinute() + clockSettings.getSnoozeDuration();
+                }
+                return sum;
+            }
+        });
+        long preferencesNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long sum = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    sum += preferences.getInt(ClockSettings.KEY_HOUR, 0)
+                            + preferences.getInt(ClockSettings.KEY_MINUTE, 0)
+                            + preferences.getInt(ClockSettings.KEY_SNOOZE_DURATION, 0);
+                }
+                return sum;
+            }
+        });
+        long editNanos = benchmark.timeOnce(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                for (int i = 0; i < 1000; i++) {
+                    clockSettings.edit().setHour(i % 24).setMinute(i % 60).apply();
+                }
+                return clockSettings.getHour();
+            }
+        });
+
+        benchmark.report("100k reads of 3 settings: snapshot " + snapshotNanos / 1000 + " us, preferences "
+                + preferencesNanos / 1000 + " us, 1k edits of 2 settings " + editNanos / 1000 + " us");
+    }
+}
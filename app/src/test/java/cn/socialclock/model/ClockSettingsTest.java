@@ -0,0 +1,117 @@
+package cn.socialclock.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.socialclock.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mapler
+ * Batched writes, concurrent weekday switches and reload of ClockSettings.
+ * Their time is measured by ClockSettingsBenchmark.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ClockSettingsTest {
+
+    private static final String PREFERENCES_NAME = "ClockSettings";
+
+    private SharedPreferences preferences;
+    private ClockSettings clockSettings;
+
+    @Before
+    public void setUp() {
+        preferences = RuntimeEnvironment.application.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        clockSettings = new ClockSettings(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void editorWritesChangedKeysTogether() {
+        final List<ClockSettings.Snapshot> changes = new ArrayList<>();
+        clockSettings.registerListener(new ClockSettings.OnClockSettingsChangeListener() {
+            @Override
+            public void onClockSettingsChanged(ClockSettings.Snapshot settings) {
+                changes.add(settings);
+            }
+        });
+
+        clockSettings.edit().setHour(6).setMinute(45).setIsEnable(true).apply();
+
+        assertEquals(1, changes.size());
+        assertEquals(6, clockSettings.getHour());
+        assertEquals(45, clockSettings.getMinute());
+        assertTrue(clockSettings.getIsEnable());
+        assertEquals(6, preferences.getInt(ClockSettings.KEY_HOUR, -1));
+        assertEquals(45, preferences.getInt(ClockSettings.KEY_MINUTE, -1));
+        assertTrue(preferences.getBoolean(ClockSettings.KEY_IS_ENABLE, false));
+        assertFalse(preferences.contains(ClockSettings.KEY_SNOOZE_DURATION));
+
+        // same values again, nothing to publish
+        clockSettings.edit().setHour(6).apply();
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void concurrentWeekdaySwitchesAreKept() throws InterruptedException {
+        boolean[] enabled = new boolean[7];
+        for (int weekdayId = 0; weekdayId < 7; weekdayId++) {
+            enabled[weekdayId] = clockSettings.isWeekdayEnable(weekdayId);
+        }
+        Thread[] threads = new Thread[7];
+        for (int t = 0; t < threads.length; t++) {
+            final int weekdayId = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // odd switch count, so each weekday ends switched
+                    for (int i = 0; i < 101; i++) {
+                        clockSettings.switchWeekdayEnable(weekdayId);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int weekdayId = 0; weekdayId < 7; weekdayId++) {
+            assertEquals(!enabled[weekdayId], clockSettings.isWeekdayEnable(weekdayId));
+        }
+    }
+
+    @Test
+    public void reloadReadsChangesOfAnotherProcess() {
+        final List<ClockSettings.Snapshot> changes = new ArrayList<>();
+        clockSettings.registerListener(new ClockSettings.OnClockSettingsChangeListener() {
+            @Override
+            public void onClockSettingsChanged(ClockSettings.Snapshot settings) {
+                changes.add(settings);
+            }
+        });
+        // as the main process writes the file
+        preferences.edit().putInt(ClockSettings.KEY_SNOOZE_DURATION, 9).commit();
+        assertFalse(clockSettings.getSnoozeDuration() == 9);
+
+        clockSettings.reload();
+
+        assertEquals(9, clockSettings.getSnoozeDuration());
+        assertEquals(1, changes.size());
+        clockSettings.reload();
+        assertEquals(1, changes.size());
+    }
+}
@@ -0,0 +1,66 @@
+package cn.socialclock.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import cn.socialclock.BenchmarkSupport;
+
+/**
+ * @author mapler
+ * Time of 100k formats of DatetimeFormatter against SimpleDateFormat, printed to compare runs.
+ * Run with -Pbenchmark.
+ */
+public class DatetimeFormatterBenchmark {
+
+    private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+    private static final int COUNT = 100000;
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void setUp() {
+        defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void againstSimpleDateFormat() throws Exception {
+        BenchmarkSupport benchmark = new BenchmarkSupport();
+        final SimpleDateFormat format = new SimpleDateFormat(PATTERN, Locale.US);
+        long formatNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long length = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    length += format.format(new Date(START + i * 61000L)).length();
+                }
+                return length;
+            }
+        });
+        long formatterNanos = benchmark.time(new BenchmarkSupport.Task() {
+            @Override
+            public long run() {
+                long length = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    length += DatetimeFormatter.millisToString(START + i * 61000L).length();
+                }
+                return length;
+            }
+        });
+
+        benchmark.report("100k formats: SimpleDateFormat " + formatNanos / 1000 + " us, DatetimeFormatter "
+                + formatterNanos / 1000 + " us");
+    }
+}
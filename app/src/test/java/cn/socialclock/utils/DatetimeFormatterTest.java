@@ -0,0 +1,137 @@
+package cn.socialclock.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author mapler
+ * DatetimeFormatter against SimpleDateFormat in zones with daylight saving changes,
+ * and from several threads at once. Their time is measured by DatetimeFormatterBenchmark.
+ */
+public class DatetimeFormatterTest {
+
+    private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01 UTC
+    private static final String[] ZONES = {
+            "UTC", "Asia/Shanghai", "America/New_York", "Europe/London", "Australia/Lord_Howe"};
+
+    private TimeZone defaultZone;
+    private Locale defaultLocale;
+
+    @Before
+    public void setUp() {
+        defaultZone = TimeZone.getDefault();
+        defaultLocale = Locale.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void sameAsSimpleDateFormatInEachZone() throws ParseException {
+        for (String zoneId : ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zoneId));
+            SimpleDateFormat format = new SimpleDateFormat(PATTERN, Locale.US);
+            // every 17 minutes over two years, so every daylight saving change is crossed
+            for (long millis = START; millis < START + 2 * 365 * 24 * HOUR; millis += 17 * 60 * 1000L) {
+                String expected = format.format(new Date(millis));
+                assertEquals(zoneId, expected, DatetimeFormatter.millisToString(millis));
+                assertEquals(zoneId + " " + expected, format.parse(expected).getTime(),
+                        DatetimeFormatter.stringToMillis(expected, -1));
+            }
+        }
+    }
+
+    @Test
+    public void followsDefaultZoneChange() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        assertEquals("2015-01-01 00:00:00", DatetimeFormatter.millisToString(START));
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        assertEquals("2015-01-01 08:00:00", DatetimeFormatter.millisToString(START));
+        assertEquals(START, DatetimeFormatter.stringToMillis("2015-01-01 08:00:00", -1));
+    }
+
+    @Test
+    public void asciiDigitsInAnyLocale() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        Locale.setDefault(new Locale("ar", "EG"));
+        assertEquals("2015-01-01 00:00:00", DatetimeFormatter.millisToString(START));
+    }
+
+    @Test
+    public void appendsAfterExistingText() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        StringBuilder builder = new StringBuilder("at ");
+        assertEquals("at 2015-01-01 00:00:00", DatetimeFormatter.appendTo(builder, START).toString());
+    }
+
+    @Test
+    public void rejectsBadStrings() {
+        String[] badStrings = {null, "", "2015-01-01", "2015-01-01T00:00:00", "2015-13-01 00:00:00",
+                "2015-02-29 00:00:00", "2015-01-01 24:00:00", "2015-01-01 00:60:00", "2015-01-0a 00:00:00",
+                "2015-01-01 00:00:00 "};
+        for (String badString : badStrings) {
+            assertEquals(badString, -1, DatetimeFormatter.stringToMillis(badString, -1));
+        }
+        assertNull(DatetimeFormatter.stringToCalendar("2015-02-29 00:00:00"));
+    }
+
+    @Test
+    public void sameResultsFromEightThreads() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        final SimpleDateFormat format = new SimpleDateFormat(PATTERN, Locale.US);
+        final long step = 7 * 60 * 1000L + 13;
+        final int count = 20000;
+        final String[] expected = new String[count];
+        for (int i = 0; i < count; i++) {
+            expected[i] = format.format(new Date(START + i * step));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int mismatches = 0;
+                        for (int i = 0; i < count; i++) {
+                            long millis = START + i * step;
+                            String string = DatetimeFormatter.millisToString(millis);
+                            if (!expected[i].equals(string)
+                                    || DatetimeFormatter.stringToMillis(string, -1) != millis - millis % 1000) {
+                                mismatches++;
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(0, (int) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
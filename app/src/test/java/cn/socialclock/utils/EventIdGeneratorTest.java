@@ -0,0 +1,81 @@
+package cn.socialclock.utils;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cn.socialclock.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mapler
+ * Format, order and uniqueness of event ids from several threads.
+ * Robolectric for android.os.Process.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class EventIdGeneratorTest {
+
+    private static final String BASE32 = "0123456789abcdefghjkmnpqrstvwxyz";
+
+    @Test
+    public void idsAreBase32AndIncrease() {
+        String last = "";
+        for (int i = 0; i < 100000; i++) {
+            String id = EventIdGenerator.next();
+            assertEquals(16, id.length());
+            for (int c = 0; c < id.length(); c++) {
+                assertTrue(id, BASE32.indexOf(id.charAt(c)) >= 0);
+            }
+            assertTrue(last + " then " + id, id.compareTo(last) > 0);
+            last = id;
+        }
+    }
+
+    @Test
+    public void idsOfThreadsAreUnique() throws Exception {
+        int threads = 8;
+        final int count = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        List<String> ids = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            ids.add(EventIdGenerator.next());
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            Set<String> allIds = new HashSet<>();
+            for (Future<List<String>> future : futures) {
+                List<String> ids = future.get();
+                for (int i = 1; i < ids.size(); i++) {
+                    assertTrue(ids.get(i).compareTo(ids.get(i - 1)) > 0);
+                }
+                allIds.addAll(ids);
+            }
+            assertEquals(threads * count, allIds.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}